@@ -132,6 +132,24 @@ public class WordToken extends BaseToken {
     if (WordToken_Type.featOkTst && ((WordToken_Type)jcasType).casFeat_canonicalForm == null)
       jcasType.jcas.throwFeatMissing("canonicalForm", "org.ohnlp.typesystem.type.syntax.WordToken");
     jcasType.ll_cas.ll_setStringValue(addr, ((WordToken_Type)jcasType).casFeatCode_canonicalForm, v);}    
+   
+    
+  //*--------------*
+  //* Feature: canonicalId
+
+  /** getter for canonicalId - gets id of canonicalForm in the shared token vocabulary, 0 if not known
+   * @generated */
+  public int getCanonicalId() {
+    if (WordToken_Type.featOkTst && ((WordToken_Type)jcasType).casFeat_canonicalId == null)
+      jcasType.jcas.throwFeatMissing("canonicalId", "org.ohnlp.typesystem.type.syntax.WordToken");
+    return jcasType.ll_cas.ll_getIntValue(addr, ((WordToken_Type)jcasType).casFeatCode_canonicalId);}
+    
+  /** setter for canonicalId - sets id of canonicalForm in the shared token vocabulary, 0 if not known 
+   * @generated */
+  public void setCanonicalId(int v) {
+    if (WordToken_Type.featOkTst && ((WordToken_Type)jcasType).casFeat_canonicalId == null)
+      jcasType.jcas.throwFeatMissing("canonicalId", "org.ohnlp.typesystem.type.syntax.WordToken");
+    jcasType.ll_cas.ll_setIntValue(addr, ((WordToken_Type)jcasType).casFeatCode_canonicalId, v);}    
   }
 
     
\ No newline at end of file
@@ -115,6 +115,24 @@ public class WordToken_Type extends BaseToken_Type {
     ll_cas.ll_setStringValue(addr, casFeatCode_canonicalForm, v);}
     
   
+ 
+  /** @generated */
+  final Feature casFeat_canonicalId;
+  /** @generated */
+  final int     casFeatCode_canonicalId;
+  /** @generated */ 
+  public int getCanonicalId(int addr) {
+        if (featOkTst && casFeat_canonicalId == null)
+      jcas.throwFeatMissing("canonicalId", "org.ohnlp.typesystem.type.syntax.WordToken");
+    return ll_cas.ll_getIntValue(addr, casFeatCode_canonicalId);
+  }
+  /** @generated */    
+  public void setCanonicalId(int addr, int v) {
+        if (featOkTst && casFeat_canonicalId == null)
+      jcas.throwFeatMissing("canonicalId", "org.ohnlp.typesystem.type.syntax.WordToken");
+    ll_cas.ll_setIntValue(addr, casFeatCode_canonicalId, v);}
+    
+  
 
 
 
@@ -140,6 +158,10 @@ public class WordToken_Type extends BaseToken_Type {
     casFeat_canonicalForm = jcas.getRequiredFeatureDE(casType, "canonicalForm", "uima.cas.String", featOkTst);
     casFeatCode_canonicalForm  = (null == casFeat_canonicalForm) ? JCas.INVALID_FEATURE_CODE : ((FeatureImpl)casFeat_canonicalForm).getCode();
 
+ 
+    casFeat_canonicalId = jcas.getRequiredFeatureDE(casType, "canonicalId", "uima.cas.Integer", featOkTst);
+    casFeatCode_canonicalId  = (null == casFeat_canonicalId) ? JCas.INVALID_FEATURE_CODE : ((FeatureImpl)casFeat_canonicalId).getCode();
+
   }
 }
 
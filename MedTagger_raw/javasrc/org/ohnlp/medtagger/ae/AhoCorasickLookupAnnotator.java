@@ -25,13 +25,14 @@
 package org.ohnlp.medtagger.ae;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Vector;
+import java.util.List;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -44,12 +45,22 @@ import org.apache.uima.resource.ResourceAccessException;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.ohnlp.typesystem.type.textspan.Segment;
 import org.ohnlp.typesystem.type.textspan.Sentence;
-import org.ohnlp.typesystem.type.syntax.BaseToken;
-import org.ohnlp.typesystem.type.syntax.NumToken;
-import org.ohnlp.typesystem.type.syntax.PunctuationToken;
 import org.ohnlp.typesystem.type.syntax.WordToken;
 import org.ohnlp.medtagger.dict.AhoCorasickDict;
+import org.ohnlp.medtagger.dict.DictEntries;
+import org.ohnlp.medtagger.dict.DictImage;
+import org.ohnlp.medtagger.dict.DoubleArrayDict;
+import org.ohnlp.medtagger.dict.EntryFilter;
+import org.ohnlp.medtagger.dict.FuzzyIndex;
+import org.ohnlp.medtagger.dict.GapDict;
+import org.ohnlp.medtagger.dict.HitList;
+import org.ohnlp.medtagger.dict.HitProfile;
+import org.ohnlp.medtagger.dict.LookupDict;
+import org.ohnlp.medtagger.dict.MatchHandler;
+import org.ohnlp.medtagger.dict.OverlayDict;
 import org.ohnlp.medtagger.lvg.LvgLookup;
+import org.ohnlp.medtagger.lvg.TokenVocabulary;
+import org.ohnlp.medtagger.util.ResourceRegistry;
 import org.ohnlp.medtagger.type.ConceptMention;
 
 /**
@@ -60,9 +71,56 @@ public class AhoCorasickLookupAnnotator extends JCasAnnotator_ImplBase {
 	// LOG4J logger based on class name
 	private Logger logger = Logger.getLogger(getClass().getName());
 	private boolean LONGEST = true;
-
-	// data structure that stores the TRIE
-	AhoCorasickDict btac;
+	private static final String DETECTION_METHOD = "DictionaryLookup";
+	private static final String FUZZY_DETECTION_METHOD = "FuzzyDictionaryLookup";
+
+	// "hashmap" for AhoCorasickDict, "doublearray" for DoubleArrayDict,
+	// "image" for a memory-mapped DictImage of the DoubleArrayDict
+	public static final String PARAM_DICT_BACKEND = "dictBackend";
+	// location of the image, defaults to the dictionary path + ".img"
+	public static final String PARAM_DICT_IMAGE = "dictImage";
+	// optional file of entries added to or removed from the dictionary,
+	// re-read when it changes, see OverlayDict
+	public static final String PARAM_DELTA_FILE = "deltaFile";
+	// seconds between checks of the delta file, default 60
+	public static final String PARAM_DELTA_INTERVAL = "deltaCheckInterval";
+	// threads for building the hashmap trie, default 1
+	public static final String PARAM_BUILD_THREADS = "dictBuildThreads";
+	// further dictionaries as name=path, merged with dict into one trie;
+	// relative paths are resolved against the data path
+	public static final String PARAM_EXTRA_DICTS = "extraDictionaries";
+	// longest match only or all matches, per source: dict first, then the
+	// extra dictionaries; default true
+	public static final String PARAM_LONGEST = "longestMatch";
+	// edit distance for correcting words missing from the dictionary, 0
+	// (default) for exact lookup only, 1 or 2
+	public static final String PARAM_FUZZY_EDITS = "fuzzyEdits";
+	// shortest word that is corrected, default 5
+	public static final String PARAM_FUZZY_MIN_LENGTH = "fuzzyMinLength";
+	// semantic groups, or extra field values, of the entries to load; all
+	// entries if not set, see EntryFilter
+	public static final String PARAM_SEM_GROUPS = "semanticGroups";
+	// file to write hit counts of entries and key prefixes to, see
+	// HitProfile; no counting if not set
+	public static final String PARAM_HIT_STATS = "hitStatsFile";
+
+	// data structure that stores the TRIE; with a delta file, the immutable
+	// main dictionary under the current OverlayDict
+	LookupDict btac;
+	// what process() looks up in, shared by the annotators with the same
+	// settings and swapped as a whole when the delta changes
+	SharedView views;
+	// null unless hits are counted
+	HitProfile profile;
+	TokenVocabulary vocab;
+	// per dictionary source: detection methods and longest match policy
+	String[] methods;
+	String[] fuzzyMethods;
+	boolean[] longest;
+	int fuzzyEdits;
+	int fuzzyMinLength;
+	// fuzzy index of btac, null unless fuzzy lookup is on
+	FuzzyIndex mainFuzzy;
 	HashSet<String> stop;
 	HashMap<String, String> abbr;
 	// add the path in resources
@@ -75,47 +133,220 @@ public class AhoCorasickLookupAnnotator extends JCasAnnotator_ImplBase {
 		logger.setLevel(Level.DEBUG);
 
 		try {
-			lvg = new LvgLookup(aContext.getResourceFilePath("lvg_dict"),
-					aContext.getResourceFilePath("openclass"));
+			String lvgDict = aContext.getResourceFilePath("lvg_dict");
+			String openclass = aContext.getResourceFilePath("openclass");
+			lvg = LvgLookup.get(lvgDict, openclass);
+			stop = getStop(lvgDict, openclass, aContext.getResourceFilePath("stop"));
+			abbr = getAbbr(aContext.getResourceFilePath("abbr"));
 
 			String dict = aContext.getResourceFilePath("dict");
-			btac = new AhoCorasickDict(dict);
-
-			stop = new HashSet<String>();
-			BufferedReader br = new BufferedReader(new FileReader(
-					aContext.getResourceFilePath("stop")));
-			while (br.ready()) {
-				String line = br.readLine();
-					  if(line.startsWith("#")) continue;
-				stop.add(lvg.getNorm(line.substring(line.indexOf('\t') + 1,
-						line.indexOf('|'))));
-			}
-			br.close();
-
-			abbr = new HashMap<String, String>();
-			br = new BufferedReader(new FileReader(
-					aContext.getResourceFilePath("abbr")));
-			while (br.ready()) {
-				String line = br.readLine();
-				if(line.startsWith("#")) continue;
-				
-				// add even those not in stop word list
-				// abbr.add(line.substring(0, line.indexOf('|')));
-				abbr.put(line.split("\\|")[0], line.split("\\|")[1]);
-			}
-			br.close();
+			String[] extra = (String[]) aContext.getConfigParameterValue(PARAM_EXTRA_DICTS);
+			if (extra == null) extra = new String[0];
+			String[] dicts = new String[extra.length + 1];
+			methods = new String[dicts.length];
+			fuzzyMethods = new String[dicts.length];
+			dicts[0] = dict;
+			methods[0] = DETECTION_METHOD;
+			fuzzyMethods[0] = FUZZY_DETECTION_METHOD;
+			for (int i = 0; i < extra.length; i++) {
+				int eq = extra[i].indexOf('=');
+				if (eq < 0)
+					throw new ResourceInitializationException(new IllegalArgumentException(
+							PARAM_EXTRA_DICTS + " expects name=path, got " + extra[i]));
+				methods[i + 1] = DETECTION_METHOD + "_" + extra[i].substring(0, eq).trim();
+				fuzzyMethods[i + 1] = FUZZY_DETECTION_METHOD + "_" + extra[i].substring(0, eq).trim();
+				dicts[i + 1] = resolve(aContext, extra[i].substring(eq + 1).trim());
+			}
+			longest = new boolean[dicts.length];
+			Boolean[] policy = (Boolean[]) aContext.getConfigParameterValue(PARAM_LONGEST);
+			for (int i = 0; i < longest.length; i++)
+				longest[i] = policy == null || i >= policy.length ? LONGEST : policy[i];
+			Integer edits = (Integer) aContext.getConfigParameterValue(PARAM_FUZZY_EDITS);
+			fuzzyEdits = edits == null ? 0 : Math.max(0, Math.min(2, edits));
+			Integer minLength = (Integer) aContext.getConfigParameterValue(PARAM_FUZZY_MIN_LENGTH);
+			fuzzyMinLength = minLength == null ? 5 : minLength;
+
+			EntryFilter filter = EntryFilter.of((String[]) aContext
+					.getConfigParameterValue(PARAM_SEM_GROUPS));
+			String backend = (String) aContext
+					.getConfigParameterValue(PARAM_DICT_BACKEND);
+			String image = (String) aContext
+					.getConfigParameterValue(PARAM_DICT_IMAGE);
+			if (image == null || image.trim().length() == 0)
+				image = DictImage.defaultImage(dict);
+			Integer threads = (Integer) aContext
+					.getConfigParameterValue(PARAM_BUILD_THREADS);
+			btac = getDict(backend, dicts, image, threads == null ? 1 : threads, filter);
+			if (fuzzyEdits > 0)
+				mainFuzzy = getFuzzy(btac, backend, dicts, image, filter, fuzzyEdits,
+						fuzzyMinLength);
+
+			String stats = (String) aContext.getConfigParameterValue(PARAM_HIT_STATS);
+			if (stats != null && stats.trim().length() > 0)
+				profile = new HitProfile(stats.trim(), btac, dicts);
+
+			vocab = TokenVocabulary.get(lvgDict);
+
+			String delta = (String) aContext.getConfigParameterValue(PARAM_DELTA_FILE);
+			if (delta != null && delta.trim().length() == 0) delta = null;
+			Integer interval = (Integer) aContext.getConfigParameterValue(PARAM_DELTA_INTERVAL);
+			String[] files = Arrays.copyOf(dicts, dicts.length + 4);
+			files[dicts.length] = lvgDict;
+			files[dicts.length + 1] = openclass;
+			files[dicts.length + 2] = aContext.getResourceFilePath("stop");
+			files[dicts.length + 3] = aContext.getResourceFilePath("abbr");
+			views = getViews(dictSettings(backend, image, filter), delta == null ? null
+					: delta.trim(), (interval == null ? 60 : interval) * 1000L, files);
+			views.acquire();
 
 		} catch (ResourceAccessException e) {
-			e.printStackTrace();
+			throw new ResourceInitializationException(e);
 		} catch (IOException e) {
-			e.printStackTrace();
+			// without its dictionary, process() would fail on every sentence
+			throw new ResourceInitializationException(e);
 		}
 
 	}
 
+	/**
+	 * @return the dictionaries as one LookupDict of the backend, shared by
+	 *         every annotator of the JVM with the same settings, see
+	 *         ResourceRegistry
+	 */
+	static LookupDict getDict(final String backend, final String[] dicts,
+			final String image, final int threads, final EntryFilter filter)
+			throws IOException {
+		String name = "lookup dictionary, " + dictSettings(backend, image, filter);
+		return ResourceRegistry.get(name, new ResourceRegistry.Loader<LookupDict>() {
+			public LookupDict load() throws IOException {
+				LookupDict dict;
+				if ("doublearray".equalsIgnoreCase(backend))
+					dict = new DoubleArrayDict(dicts, filter);
+				else if ("image".equalsIgnoreCase(backend))
+					dict = DictImage.load(dicts, image, filter);
+				else
+					dict = new AhoCorasickDict(dicts, threads, filter);
+				// entries with token gaps, if the dictionaries have any
+				return GapDict.load(dict, dicts, filter);
+			}
+		}, dicts);
+	}
+
+	private static String dictSettings(String backend, String image,
+			EntryFilter filter) {
+		return "backend " + backend
+				+ ("image".equalsIgnoreCase(backend) ? " " + image : "")
+				+ ", groups " + EntryFilter.hash(filter);
+	}
+
+	/**
+	 * @return the fuzzy index of dict, the dictionary of getDict() with the
+	 *         same settings, shared like the dictionary
+	 */
+	static FuzzyIndex getFuzzy(final LookupDict dict, String backend,
+			String[] dicts, String image, EntryFilter filter,
+			final int edits, final int minLength) throws IOException {
+		String name = "fuzzy index, " + edits + " edits from length "
+				+ minLength + ", of the lookup dictionary, "
+				+ dictSettings(backend, image, filter);
+		return ResourceRegistry.get(name, new ResourceRegistry.Loader<FuzzyIndex>() {
+			public FuzzyIndex load() {
+				return new FuzzyIndex(dict.getKeyTokens(), edits, minLength);
+			}
+		}, dicts);
+	}
+
+	/**
+	 * @return the normalized stop words, shared like the dictionary
+	 */
+	static HashSet<String> getStop(final String lvgDict, final String openclass,
+			final String stopFile) throws IOException {
+		return ResourceRegistry.get("stop words", new ResourceRegistry.Loader<HashSet<String>>() {
+			public HashSet<String> load() throws IOException {
+				LvgLookup lvg = LvgLookup.get(lvgDict, openclass);
+				HashSet<String> stop = new HashSet<String>();
+				BufferedReader br = new BufferedReader(new FileReader(stopFile));
+				while (br.ready()) {
+					String line = br.readLine();
+						  if(line.startsWith("#")) continue;
+					stop.add(lvg.getNorm(line.substring(line.indexOf('\t') + 1,
+							line.indexOf('|'))));
+				}
+				br.close();
+				return stop;
+			}
+		}, lvgDict, openclass, stopFile);
+	}
+
+	/**
+	 * @return the abbreviations, shared like the dictionary
+	 */
+	static HashMap<String, String> getAbbr(final String abbrFile) throws IOException {
+		return ResourceRegistry.get("abbreviations", new ResourceRegistry.Loader<HashMap<String, String>>() {
+			public HashMap<String, String> load() throws IOException {
+				HashMap<String, String> abbr = new HashMap<String, String>();
+				BufferedReader br = new BufferedReader(new FileReader(abbrFile));
+				while (br.ready()) {
+					String line = br.readLine();
+					if(line.startsWith("#")) continue;
+
+					// add even those not in stop word list
+					// abbr.add(line.substring(0, line.indexOf('|')));
+					abbr.put(line.split("\\|")[0], line.split("\\|")[1]);
+				}
+				br.close();
+				return abbr;
+			}
+		}, abbrFile);
+	}
+
+	/**
+	 * @return path, if relative, found in the data path
+	 */
+	private static String resolve(UimaContext aContext, String path) {
+		if (new File(path).isAbsolute()) return path;
+		for (String dir : aContext.getDataPath().split(File.pathSeparator)) {
+			File file = new File(dir, path);
+			if (file.exists()) return file.getPath();
+		}
+		return path;
+	}
+
+	@Override
+	public void collectionProcessComplete()
+			throws AnalysisEngineProcessException {
+		flushProfile();
+		super.collectionProcessComplete();
+	}
+
+	@Override
+	public void destroy() {
+		if (views != null)
+			views.release();
+		flushProfile();
+		super.destroy();
+	}
+
+	private void flushProfile() {
+		if (profile == null)
+			return;
+		try {
+			profile.flush(btac);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	@Override
 	public void process(JCas jCas) throws AnalysisEngineProcessException {
+		// one dictionary for the whole document, even if a swap happens
+		DictView v = views.current;
 		JFSIndexRepository indexes = jCas.getJFSIndexRepository();
+		// the tokens as arrays, shared with the other annotators of the CAS
+		TokenTable table = TokenTable.get(jCas);
+		// the canonical ids index our vocabulary only if LvgLookup set them
+		// from it; another dict binding gives other ids
+		boolean normIds = table.getVocabulary() == vocab;
 		Iterator<?> segItr = indexes.getAnnotationIndex(Segment.type)
 				.iterator();
 		while (segItr.hasNext()) {
@@ -124,113 +355,381 @@ public class AhoCorasickLookupAnnotator extends JCasAnnotator_ImplBase {
 			Iterator<?> sentItr = indexes.getAnnotationIndex(Sentence.type)
 					.subiterator(seg);
 			while (sentItr.hasNext()) {
-				ArrayList<String> normTokens = new ArrayList<String>();
-				HashMap<Integer, Integer> begins = new HashMap<Integer, Integer>();
-				HashMap<Integer, Integer> ends = new HashMap<Integer, Integer>();
-
 				Sentence sent = (Sentence) sentItr.next();
-				int b = sent.getBegin();
-				int e = sent.getEnd();
+				int ntokens = 0;
+				int ncorrected = 0;
 
 				// TODO: do we care only about word tokens, or do we worry about
 				// contractions, symbols, punctuations and numbers too?
-				Iterator<?> tokenItr = indexes.getAnnotationIndex(
-						BaseToken.type).subiterator(sent);
-
-				while (tokenItr.hasNext()) {
-					BaseToken token = (BaseToken) tokenItr.next();
-
-					if (token instanceof WordToken) {
-						if (((WordToken) token).getCanonicalForm() == null)
+				// the tokens within the sentence, as its subiterator has them
+				int sentEnd = sent.getEnd();
+				for (int t = table.firstToken(sent.getBegin()); t < table.size()
+						&& table.getBegin(t) < sentEnd; t++) {
+					if (table.getEnd(t) > sentEnd)
+						continue;
+					String norm = null;
+					byte kind = table.getKind(t);
+
+					if (kind == TokenTable.WORD) {
+						// canonicalId is set by LvgLookup when the dictionary
+						// is bound to it; no string lookup needed then
+						int canonicalId = table.getNormId(t);
+						// a word the vocabulary knows is never corrected
+						if (normIds && canonicalId > 0 && canonicalId < v.dictIds.length) {
+							ntokens = addToken(ntokens, v.dictIds[canonicalId], true, table, t);
 							continue;
-						normTokens.add(((WordToken) token).getCanonicalForm());
-						// storing the begins and ends for future use
-						begins.put(normTokens.size() - 1, token.getBegin());
-						ends.put(normTokens.size() - 1, token.getEnd());
+						}
+						norm = ((WordToken) table.getToken(t)).getCanonicalForm();
 					}
-					if (token instanceof NumToken) {
-						normTokens.add(token.getCoveredText());
-						// storing the begins and ends for future use
-						begins.put(normTokens.size() - 1, token.getBegin());
-						ends.put(normTokens.size() - 1, token.getEnd());
+					else if (kind == TokenTable.NUM) {
+						norm = table.getCoveredText(t);
 					}
-					 if(token instanceof PunctuationToken){
-						String tktext=token.getCoveredText();
-						if(tktext.equals(">") ||tktext.equals("<") || tktext.equals("=")){
-							normTokens.add(token.getCoveredText());
-							// storing the begins and ends for future use
-							begins.put(normTokens.size() - 1, token.getBegin());
-							ends.put(normTokens.size() - 1, token.getEnd());
-					
-						}
-					} 
+					else if (kind == TokenTable.PUNCTUATION) {
+						char c = table.getChar(t);
+						if (c == '>' || c == '<' || c == '=')
+							norm = String.valueOf(c);
+					}
+					if (norm == null)
+						continue;
+					ntokens = addToken(ntokens, v.dict.getTokenId(norm),
+							kind == TokenTable.WORD
+									|| norm.equals(lvg.getCanonicalForm(norm)), table, t);
+					if (ids[ntokens - 1] < 0 && v.fuzzy != null
+							&& kind == TokenTable.WORD
+							&& vocab.getId(norm) == TokenVocabulary.UNKNOWN)
+						ncorrected += correct(v, ntokens - 1, norm);
 				}
 
-				String[] tokens = normTokens.toArray(new String[0]);
-				ArrayList<Vector<String>> tags = new ArrayList<Vector<String>>(
-						tokens.length);
-				for (int i = 0; i < tokens.length; i++) {
-					tags.add(new Vector<String>());
+				if (profile != null)
+					profile.sentence(ids, ntokens);
+				hits.reset(jCas, sent, v);
+				find(v.dict, ids, ntokens);
+				// the exact hits are kept as they are; a second scan with the
+				// corrections adds the hits that need one
+				if (ncorrected > 0) {
+					hits.fuzzy = true;
+					find(v.dict, fuzzyIds, ntokens);
+					hits.fuzzy = false;
 				}
+			}
+		}
 
-				// TODO: debug this later
-				if (tokens.length > 200)
-					continue;
-
-				// debugging
-				// logger.debug(btac.root.phrase);
-				btac.find(tokens, 0, btac.root, tags);
+	}
 
-				// loading stuff into CAS
-				for (int count = 0; count < tags.size(); count++) {
-					for (int lcount = 0; lcount < tags.get(count).size(); lcount++) {
-						if (LONGEST && lcount != tags.get(count).size() - 1)
-							continue;
+	/**
+	 * @return 1 if the word of token i was corrected into fuzzyIds[i]
+	 */
+	private int correct(DictView v, int i, String word) {
+		if (v != correctionsView) {
+			corrections.clear();
+			correctionsView = v;
+		}
+		String token;
+		if (corrections.containsKey(word))
+			token = corrections.get(word);
+		else {
+			if (corrections.size() >= 100000)
+				corrections.clear();
+			token = v.fuzzy.correct(word);
+			corrections.put(word, token);
+		}
+		if (token == null)
+			return 0;
+		fuzzyIds[i] = v.dict.getTokenId(token);
+		return 1;
+	}
 
-						String con = tags.get(count).get(lcount);
-						int size = Integer.parseInt(con.substring(0,
-								con.indexOf(":")));
-						int begin = begins.get(count);
-						int end = ends.get(count + size - 1);
-						String code = con.substring(con.lastIndexOf(":") + 1);
-
-						String[] multiples = code.split("\\|\\|");
-						for (int multiple = 0; multiple < multiples.length; multiple++) {
-							String[] splits = multiples[multiple].split("\\|");
-
-							String text = sent.getCoveredText().substring(
-									begin - b, end - b);
-							if (stop.contains(lvg.getNorm(text))
-									&& !abbr.containsKey(splits[0]))
-								continue;
-
-							if (abbr.containsKey(lvg.getNorm(text))
-									&& (!abbr.get(lvg.getNorm(text)).equals(
-											text) || (begin - b > 0 && !sent
-											.getCoveredText()
-											.substring(begin - b - 1, begin - b)
-											.equals(" "))))
-								continue;
-
-			              		ConceptMention neAnnot = new ConceptMention(
-										jCas, begin, end);
-			              		neAnnot.setNormTarget(splits[1]);
-								neAnnot.setSemGroup(splits[2]);
-								neAnnot.setDetectionMethod("DictionaryLookup");
-								neAnnot.setSentence(sent);
-								neAnnot.addToIndexes();
-							}
-
-							if (LONGEST && lcount == tags.get(count).size() - 1) {
-								count = count + size - 1;
-								break;
-							}
-						}
+	private void find(LookupDict dict, int[] tokenIds, int ntokens) {
+		if (longest.length == 1)
+			dict.find(tokenIds, ntokens, longest[0], hits);
+		else
+			findSources(dict, tokenIds, ntokens);
+	}
 
-					}
+	/**
+	 * One scan for all dictionary sources, then each source picks its own
+	 * hits: all of them, or the leftmost-longest among the hits with entries
+	 * of that source.
+	 */
+	private void findSources(LookupDict dict, int[] tokenIds, int ntokens) {
+		allHits.clear();
+		dict.find(tokenIds, ntokens, false, allHits);
+		DictEntries entries = dict.getEntries();
+		for (int source = 0; source < longest.length; source++) {
+			sourceHits.clear();
+			for (int i = 0; i < allHits.size(); i++) {
+				int payload = allHits.getPayload(i);
+				for (int e = entries.first(payload); e < entries.end(payload); e++) {
+					if (entries.getSource(e) != source) continue;
+					sourceHits.match(allHits.getStart(i), allHits.getLength(i), payload);
+					break;
 				}
 			}
+			hits.source = source;
+			sourceHits.report(longest[source], hits);
+		}
+		hits.source = -1;
+	}
+
+	private int addToken(int ntokens, int id, boolean plain, TokenTable table, int t) {
+		if (ntokens == ids.length)
+			growTokens();
+		ids[ntokens] = id;
+		fuzzyIds[ntokens] = id;
+		plains[ntokens] = plain;
+		// storing the begins and ends for future use
+		begins[ntokens] = table.getBegin(t);
+		ends[ntokens] = table.getEnd(t);
+		return ntokens + 1;
+	}
+
+	private void growTokens() {
+		int n = ids.length * 2;
+		ids = Arrays.copyOf(ids, n);
+		fuzzyIds = Arrays.copyOf(fuzzyIds, n);
+		plains = Arrays.copyOf(plains, n);
+		begins = Arrays.copyOf(begins, n);
+		ends = Arrays.copyOf(ends, n);
+	}
+
+	// dictionary token ids of the current sentence with their offsets;
+	// reused across sentences
+	private int[] ids = new int[256];
+	// ids with the fuzzy corrections of words missing from the vocabulary
+	private int[] fuzzyIds = new int[256];
+	// true if LvgLookup.getNorm() of the token text is its dictionary token
+	private boolean[] plains = new boolean[256];
+	private int[] begins = new int[256];
+	private int[] ends = new int[256];
+	private final SentenceHits hits = new SentenceHits();
+	private final HitList allHits = new HitList();
+	private final HitList sourceHits = new HitList();
+	// fuzzy corrections of recently seen words in correctionsView, null if
+	// there is none
+	private final HashMap<String, String> corrections = new HashMap<String, String>();
+	private DictView correctionsView;
+
+	static final byte STOP = 1;
+	static final byte ABBR = 2;
+
+	/**
+	 * @return the current view of the dictionary with these settings and
+	 *         delta file, shared by every annotator of the JVM with the same
+	 *         settings, see ResourceRegistry
+	 */
+	SharedView getViews(String settings, final String delta,
+			final long interval, String[] files) throws IOException {
+		String name = "dictionary view, " + settings + ", fuzzy " + fuzzyEdits
+				+ " edits from length " + fuzzyMinLength
+				+ (delta == null ? "" : ", delta " + delta + " every " + interval + " ms");
+		return ResourceRegistry.get(name, new ResourceRegistry.Loader<SharedView>() {
+			public SharedView load() {
+				return new SharedView(btac, vocab, stop, abbr, mainFuzzy, delta, interval);
+			}
+		}, files);
+	}
+
+	/**
+	 * The DictView of a dictionary and its delta file that the annotators
+	 * with the same settings look up in. While any of them is in use, one
+	 * DeltaWatcher builds a new view whenever the delta changes.
+	 */
+	static class SharedView implements OverlayDict.DeltaWatcher.Listener {
+
+		private static Logger iv_logger = Logger.getLogger(SharedView.class.getName());
+
+		final LookupDict main;
+		final TokenVocabulary vocab;
+		final HashSet<String> stop;
+		final HashMap<String, String> abbr;
+		final FuzzyIndex mainFuzzy;
+		// null if there is none
+		final String delta;
+		final long interval;
+		volatile DictView current;
+		OverlayDict.DeltaWatcher watcher;
+		int users;
+
+		SharedView(LookupDict main, TokenVocabulary vocab, HashSet<String> stop,
+				HashMap<String, String> abbr, FuzzyIndex mainFuzzy, String delta,
+				long interval) {
+			this.main = main;
+			this.vocab = vocab;
+			this.stop = stop;
+			this.abbr = abbr;
+			this.mainFuzzy = mainFuzzy;
+			this.delta = delta;
+			this.interval = interval;
+			current = new DictView(main, this);
+		}
+
+		public void swap(LookupDict dict) {
+			current = new DictView(dict, this);
+			iv_logger.info("now using dictionary delta " + delta);
+		}
+
+		synchronized void acquire() {
+			if (users++ == 0 && delta != null) {
+				watcher = new OverlayDict.DeltaWatcher(main, delta, this);
+				watcher.start(interval);
+			}
+		}
+
+		synchronized void release() {
+			if (--users == 0 && watcher != null) {
+				watcher.stop();
+				watcher = null;
+			}
+		}
+	}
+
+	/**
+	 * A dictionary with the table from canonical ids to its token ids, and
+	 * the stop word and abbreviation status of its keys.
+	 */
+	static class DictView {
+
+		final LookupDict dict;
+		final DictEntries entries;
+		// dictionary token id of each WordToken.canonicalId, -1 if none
+		final int[] dictIds;
+		// STOP and ABBR flags of each payload, set if the key, its tokens
+		// joined by spaces, is in stop or abbr
+		final byte[] flags;
+		// the abbreviation of each ABBR payload
+		final HashMap<Integer, String> abbrForms = new HashMap<Integer, String>();
+		// null unless fuzzy lookup is on; the shared index of the main
+		// dictionary, plus the tokens a delta adds
+		final FuzzyIndex fuzzy;
+
+		DictView(LookupDict dict, SharedView shared) {
+			TokenVocabulary vocab = shared.vocab;
+			this.dict = dict;
+			entries = dict.getEntries();
+			dictIds = new int[vocab.size() + 1];
+			dictIds[TokenVocabulary.UNKNOWN] = -1;
+			for (int id = 1; id <= vocab.size(); id++)
+				dictIds[id] = dict.getTokenId(vocab.get(id));
+
+			flags = new byte[entries.size()];
+			for (String norm : shared.stop) {
+				int payload = OverlayDict.findKey(dict, norm);
+				if (payload >= 0) flags[payload] |= STOP;
+			}
+			for (String norm : shared.abbr.keySet()) {
+				int payload = OverlayDict.findKey(dict, norm);
+				if (payload < 0) continue;
+				flags[payload] |= ABBR;
+				abbrForms.put(payload, shared.abbr.get(norm));
+			}
+			if (shared.mainFuzzy == null || dict == shared.main)
+				fuzzy = shared.mainFuzzy;
+			else {
+				// an OverlayDict of main lists the tokens of main first
+				List<String> tokens = dict.getKeyTokens();
+				fuzzy = new FuzzyIndex(shared.mainFuzzy,
+						tokens.subList(shared.main.getKeyTokens().size(), tokens.size()));
+			}
+		}
+	}
+
+	/**
+	 * Turns the dictionary hits of one sentence into ConceptMentions.
+	 */
+	class SentenceHits implements MatchHandler {
+
+		JCas jCas;
+		Sentence sent;
+		DictView view;
+		DictEntries entries;
+		String sentText;
+		int b;
+		// only entries of this source, all if -1
+		int source = -1;
+		// only hits with a corrected token, see process()
+		boolean fuzzy;
+
+		void reset(JCas jCas, Sentence sent, DictView view) {
+			this.jCas = jCas;
+			this.sent = sent;
+			this.view = view;
+			this.entries = view.entries;
+			this.sentText = null;
+			this.b = sent.getBegin();
 		}
 
+		public void match(int start, int size, int payload) {
+			if (sentText == null)
+				sentText = sent.getCoveredText();
+			if (fuzzy && !corrected(start, size))
+				return;
+			// every entry of the hit, so a dictionary pruned to the counted
+			// entries finds the same hits in the same text
+			if (profile != null)
+				for (int e = entries.first(payload); e < entries.end(payload); e++)
+					if (source < 0 || entries.getSource(e) == source)
+						profile.entry(entries, e);
+			int begin = begins[start];
+			int end = ends[start + size - 1];
+			boolean isStop;
+			String abbrForm;
+			// a corrected hit is judged by its key, like a plain one
+			if (fuzzy || plainSpan(start, size)) {
+				// the norm of the text is the key of the hit
+				isStop = (view.flags[payload] & STOP) != 0;
+				abbrForm = (view.flags[payload] & ABBR) != 0 ? view.abbrForms.get(payload) : null;
+			}
+			else {
+				String norm = lvg.getNorm(sentText.substring(begin - b, end - b));
+				isStop = stop.contains(norm);
+				abbrForm = abbr.get(norm);
+			}
+			// abbreviations only in their own case and after a space
+			if (abbrForm != null
+					&& (abbrForm.length() != end - begin
+							|| !sentText.regionMatches(begin - b, abbrForm, 0, end - begin)
+							|| (begin - b > 0 && sentText.charAt(begin - b - 1) != ' ')))
+				return;
+
+			for (int e = entries.first(payload); e < entries.end(payload); e++) {
+				if (source >= 0 && entries.getSource(e) != source)
+					continue;
+
+				if (isStop && !abbr.containsKey(entries.getTerm(e)))
+					continue;
+
+				ConceptMention neAnnot = new ConceptMention(jCas, begin, end);
+				neAnnot.setNormTarget(entries.getNorm(e));
+				neAnnot.setSemGroup(entries.getSemGroup(e));
+				neAnnot.setDetectionMethod(fuzzy ? fuzzyMethods[entries.getSource(e)]
+						: methods[entries.getSource(e)]);
+				neAnnot.setSentence(sent);
+				neAnnot.addToIndexes();
+			}
+		}
+
+		boolean corrected(int start, int size) {
+			for (int i = start; i < start + size; i++)
+				if (fuzzyIds[i] != ids[i])
+					return true;
+			return false;
+		}
+
+		/**
+		 * @return true if the text of the hit is its tokens separated by
+		 *         single whitespace characters, so LvgLookup.getNorm() of
+		 *         the text is the key of the hit
+		 */
+		boolean plainSpan(int start, int size) {
+			for (int i = start; i < start + size; i++) {
+				if (!plains[i])
+					return false;
+				if (i > start && (begins[i] != ends[i - 1] + 1
+						|| !LvgLookup.isSpace(sentText.charAt(ends[i - 1] - b))))
+					return false;
+			}
+			return true;
+		}
 	}
 
+}
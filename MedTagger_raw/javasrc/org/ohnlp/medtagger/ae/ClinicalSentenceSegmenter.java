@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.ae;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import opennlp.tools.sentdetect.SentenceDetectorME;
+import opennlp.tools.util.Span;
+import opennlp.uima.sentdetect.SentenceModelResource;
+
+import org.apache.uima.UimaContext;
+import org.apache.uima.analysis_component.JCasAnnotator_ImplBase;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceAccessException;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.ohnlp.medtagger.lvg.LvgLookup;
+
+/**
+ * Splits the document text into sentences by rules, in place of the OpenNLP
+ * SentenceDetectorAE followed by the newline split of LineSentenceDetector.
+ *
+ * A sentence never crosses a line break. Within a line a sentence ends
+ * <ul>
+ * <li>after the colon of a header at the start of the line, as in
+ * "Chief Complaint: chest pain";</li>
+ * <li>before a bullet character within the line;</li>
+ * <li>after a '?' or '!', and after a '.' followed by no lower case
+ * letter, unless the '.' ends an abbreviation, an initial or the number
+ * of a list item; so b.i.d. ends a sentence only before an upper case
+ * word.</li>
+ * </ul>
+ * Sentences are trimmed, and blank lines make no sentence. If the
+ * sentence_model resource is bound, lines of maxentLineLength characters
+ * or more are left to the OpenNLP sentence detector instead of the period
+ * rules; lists, vitals and forms are short lines and never reach it.
+ */
+public class ClinicalSentenceSegmenter extends JCasAnnotator_ImplBase {
+
+	// end sentences after the colon of a header at the start of a line,
+	// default true
+	public static final String PARAM_HEADER_COLONS = "splitAtHeaderColons";
+	// headers longer than this are taken for text, default 40
+	public static final String PARAM_MAX_HEADER_LENGTH = "maxHeaderLength";
+	// further abbreviations, without their final period
+	public static final String PARAM_ABBREVIATIONS = "abbreviations";
+	// lines this long go to the sentence_model, default 300
+	public static final String PARAM_MAXENT_LENGTH = "maxentLineLength";
+
+	static final String[] ABBREVIATIONS = { "dr", "drs", "mr", "mrs", "ms",
+			"prof", "st", "jr", "sr", "vs", "etc", "al", "approx", "appt",
+			"dept", "est", "fig", "no", "nos", "pt", "pts", "hx", "dx", "tx",
+			"rx", "sx", "fx", "cf", "inc", "jan", "feb", "mar", "apr", "jun",
+			"jul", "aug", "sep", "sept", "oct", "nov", "dec" };
+
+	boolean headerColons = true;
+	int maxHeaderLength = 40;
+	int maxentLength = 300;
+	HashSet<String> abbreviations = new HashSet<String>(Arrays.asList(ABBREVIATIONS));
+	SentenceDetectorME maxent;
+
+	@Override
+	public void initialize(UimaContext aContext)
+			throws ResourceInitializationException {
+		super.initialize(aContext);
+		Boolean colons = (Boolean) aContext.getConfigParameterValue(PARAM_HEADER_COLONS);
+		if (colons != null) headerColons = colons;
+		Integer length = (Integer) aContext.getConfigParameterValue(PARAM_MAX_HEADER_LENGTH);
+		if (length != null) maxHeaderLength = length;
+		length = (Integer) aContext.getConfigParameterValue(PARAM_MAXENT_LENGTH);
+		if (length != null) maxentLength = length;
+		String[] extra = (String[]) aContext.getConfigParameterValue(PARAM_ABBREVIATIONS);
+		if (extra != null)
+			for (String abbr : extra) abbreviations.add(strip(abbr.trim().toLowerCase()));
+		try {
+			Object model = aContext.getResourceObject("sentence_model");
+			if (model instanceof SentenceModelResource)
+				maxent = new SentenceDetectorME(((SentenceModelResource) model).getModel());
+		} catch (ResourceAccessException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void process(JCas jCas) throws AnalysisEngineProcessException {
+		String text = jCas.getDocumentText();
+		if (text == null) return;
+		ArrayList<SentenceLayout.Span> spans = new ArrayList<SentenceLayout.Span>();
+		int length = text.length();
+		int lineStart = 0;
+		for (int i = 0; i <= length; i++) {
+			if (i < length) {
+				char c = text.charAt(i);
+				if (c != '\n' && c != '\r') continue;
+			}
+			if (maxent != null && maxentLength > 0 && i - lineStart >= maxentLength)
+				detect(text, lineStart, i, spans);
+			else
+				segment(text, lineStart, i, spans);
+			lineStart = i + 1;
+		}
+		// sentences of an earlier detector are replaced
+		SentenceLayout layout = SentenceLayout.read(jCas);
+		layout.setSpans(spans);
+		layout.write(jCas);
+	}
+
+	/**
+	 * Adds the sentences of the line text[begin, end) by the rules.
+	 */
+	void segment(String text, int begin, int end, List<SentenceLayout.Span> spans) {
+		int start = skipSpace(text, begin, end);
+		if (start == end) return;
+		if (headerColons) start = header(text, start, end, spans);
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (isBullet(c) && i > start && LvgLookup.isSpace(text.charAt(i - 1))) {
+				add(text, start, i, spans);
+				start = i;
+				continue;
+			}
+			if (c != '.' && c != '?' && c != '!') continue;
+			// the closing brackets and quotes after the terminator
+			int after = i + 1;
+			while (after < end && isClosing(text.charAt(after))) after++;
+			if (after < end && !LvgLookup.isSpace(text.charAt(after))) continue;
+			int next = skipSpace(text, after, end);
+			if (next == end) break;
+			if (c == '.' && (Character.isLowerCase(text.charAt(next))
+					|| isAbbreviation(text, start, i))) continue;
+			add(text, start, after, spans);
+			start = next;
+			i = next - 1;
+		}
+		add(text, start, end, spans);
+	}
+
+	/**
+	 * Adds the header of the line starting at start, up to its colon.
+	 *
+	 * @return where the rest of the line starts
+	 */
+	private int header(String text, int start, int end, List<SentenceLayout.Span> spans) {
+		if (!Character.isLetter(text.charAt(start))) return start;
+		int limit = Math.min(end, start + maxHeaderLength + 1);
+		for (int i = start + 1; i < limit; i++) {
+			char c = text.charAt(i);
+			if (c == ':') {
+				if (i + 1 < end && !LvgLookup.isSpace(text.charAt(i + 1))) return start;
+				int next = skipSpace(text, i + 1, end);
+				if (next == end) return start;
+				add(text, start, i + 1, spans);
+				return next;
+			}
+			if (!Character.isLetter(c) && c != ' ' && c != '/' && c != '&'
+					&& c != '-' && c != '(' && c != ')' && c != ',') return start;
+		}
+		return start;
+	}
+
+	/**
+	 * Adds the sentences the OpenNLP sentence detector finds in the line
+	 * text[begin, end).
+	 */
+	private void detect(String text, int begin, int end, List<SentenceLayout.Span> spans) {
+		int start = skipSpace(text, begin, end);
+		if (start == end) return;
+		if (headerColons) start = header(text, start, end, spans);
+		for (Span span : maxent.sentPosDetect(text.substring(start, end)))
+			add(text, start + span.getStart(), start + span.getEnd(), spans);
+	}
+
+	/**
+	 * @return true if the '.' at text[dot] ends no sentence: it ends an
+	 *         abbreviation, an initial, or the number of a list item that is
+	 *         the first word of the sentence
+	 */
+	boolean isAbbreviation(String text, int start, int dot) {
+		int begin = dot;
+		while (begin > start && !LvgLookup.isSpace(text.charAt(begin - 1))) begin--;
+		// leading brackets and quotes
+		while (begin < dot && !Character.isLetterOrDigit(text.charAt(begin))) begin++;
+		if (begin == dot) return false;
+		String word = text.substring(begin, dot);
+		if (word.length() == 1 && Character.isLetter(word.charAt(0))) return true;
+		if (begin == start && isDigits(word)) return true;
+		return abbreviations.contains(word.toLowerCase());
+	}
+
+	private static void add(String text, int begin, int end, List<SentenceLayout.Span> spans) {
+		while (end > begin && LvgLookup.isSpace(text.charAt(end - 1))) end--;
+		if (end > begin) spans.add(new SentenceLayout.Span(begin, end, -1, null, null));
+	}
+
+	private static int skipSpace(String text, int i, int end) {
+		while (i < end && LvgLookup.isSpace(text.charAt(i))) i++;
+		return i;
+	}
+
+	private static boolean isDigits(String word) {
+		for (int i = 0; i < word.length(); i++)
+			if (!Character.isDigit(word.charAt(i))) return false;
+		return true;
+	}
+
+	private static String strip(String abbr) {
+		return abbr.endsWith(".") ? abbr.substring(0, abbr.length() - 1) : abbr;
+	}
+
+	static boolean isBullet(char c) {
+		return c == '\u2022' || c == '\u2023' || c == '\u25cf' || c == '\u25aa'
+				|| c == '\u25e6' || c == '\u2043';
+	}
+
+	private static boolean isClosing(char c) {
+		return c == ')' || c == ']' || c == '"' || c == '\'' || c == '\u201d';
+	}
+}
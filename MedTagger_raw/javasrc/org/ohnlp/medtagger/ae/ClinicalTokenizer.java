@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.ae;
+
+import java.util.Arrays;
+
+import org.apache.uima.UimaContext;
+import org.apache.uima.analysis_component.JCasAnnotator_ImplBase;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.ohnlp.typesystem.type.syntax.BaseToken;
+import org.ohnlp.typesystem.type.syntax.ContractionToken;
+import org.ohnlp.typesystem.type.syntax.NewlineToken;
+import org.ohnlp.typesystem.type.syntax.NumToken;
+import org.ohnlp.typesystem.type.syntax.PunctuationToken;
+import org.ohnlp.typesystem.type.syntax.WordToken;
+
+/**
+ * Tokenizes the document text in one pass into the final MedTagger token
+ * types, in place of the OpenNLP TokenizerAE followed by Open2OHTokenizer
+ * or LineSentenceDetector.
+ *
+ * Runs of letters, digits and underscores are WordTokens, or NumTokens if
+ * they are digits only; a number continues over a '.', ',', '/' or ':'
+ * followed by a digit, as in 2.5, 1,000 or 10/12/2020. The clitics 's,
+ * 're, 've, 'll, 'd and 'm after a word and n't are ContractionTokens,
+ * every other character but whitespace is a PunctuationToken and every
+ * '\r' and '\n' a NewlineToken. Sentences are split at newlines as by
+ * LineSentenceDetector.
+ *
+ * No part of speech is set: use the OpenNLP tokenizer and POS tagger where
+ * tags are needed, e.g. for the CRF features.
+ */
+public class ClinicalTokenizer extends JCasAnnotator_ImplBase {
+
+	// split sentences at newlines, default true
+	public static final String PARAM_SPLIT_SENTENCES = "splitSentencesAtNewlines";
+
+	boolean splitSentences = true;
+
+	@Override
+	public void initialize(UimaContext aContext)
+			throws ResourceInitializationException {
+		super.initialize(aContext);
+		Boolean split = (Boolean) aContext.getConfigParameterValue(PARAM_SPLIT_SENTENCES);
+		if (split != null) splitSentences = split;
+	}
+
+	public void process(JCas jCas) throws AnalysisEngineProcessException {
+		String text = jCas.getDocumentText();
+		if (text == null) return;
+		int length = text.length();
+		int[] newlines = new int[16];
+		int nnl = 0;
+		int number = 0;
+		int i = 0;
+		while (i < length) {
+			char c = text.charAt(i);
+			if (c == '\r' || c == '\n') {
+				if (nnl == newlines.length) newlines = Arrays.copyOf(newlines, nnl * 2);
+				newlines[nnl++] = i;
+				add(new NewlineToken(jCas, i, i + 1), number++);
+				i++;
+			}
+			else if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+				i++;
+			}
+			else if (isWordChar(c)) {
+				int end = i + 1;
+				boolean digits = Character.isDigit(c);
+				while (end < length && isWordChar(c = text.charAt(end))) {
+					digits &= Character.isDigit(c);
+					end++;
+				}
+				if (digits) {
+					// 2.5, 1,000, 10/12/2020, 10:30
+					while (end + 1 < length && isNumberSeparator(text.charAt(end))
+							&& Character.isDigit(text.charAt(end + 1))) {
+						end += 2;
+						while (end < length && Character.isDigit(text.charAt(end))) end++;
+					}
+					add(new NumToken(jCas, i, end), number++);
+				}
+				else if (end - i > 1 && isNegation(text, end - 1)) {
+					// don't -> do n't
+					add(word(jCas, text, i, end - 1), number++);
+					add(new ContractionToken(jCas, end - 1, end + 2), number++);
+					end += 2;
+				}
+				else {
+					add(word(jCas, text, i, end), number++);
+				}
+				i = end;
+			}
+			else if (c == '\'' && i > 0 && Character.isLetter(text.charAt(i - 1))
+					&& isClitic(text, i + 1)) {
+				int end = i + 2;
+				while (end < length && Character.isLetter(text.charAt(end))) end++;
+				add(new ContractionToken(jCas, i, end), number++);
+				i = end;
+			}
+			else {
+				add(new PunctuationToken(jCas, i, i + 1), number++);
+				i++;
+			}
+		}
+		TokenTable.clear(jCas);
+
+		if (splitSentences) {
+			SentenceLayout layout = SentenceLayout.read(jCas);
+			layout.splitAt(newlines, nnl);
+			layout.write(jCas);
+		}
+	}
+
+	private static void add(BaseToken token, int number) {
+		token.setTokenNumber(number);
+		token.addToIndexes();
+	}
+
+	private static WordToken word(JCas jCas, String text, int begin, int end) {
+		WordToken token = new WordToken(jCas, begin, end);
+		token.setCapitalization(getCapitalization(text, begin, end));
+		return token;
+	}
+
+	// the characters of \w, and letters and digits of any script
+	static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+	private static boolean isNumberSeparator(char c) {
+		return c == '.' || c == ',' || c == '/' || c == ':';
+	}
+
+	// true if text[n] starts an n't that ends a word
+	private static boolean isNegation(String text, int n) {
+		char c = text.charAt(n);
+		if (c != 'n' && c != 'N') return false;
+		if (n + 2 >= text.length() || text.charAt(n + 1) != '\'') return false;
+		c = text.charAt(n + 2);
+		if (c != 't' && c != 'T') return false;
+		return n + 3 == text.length() || !isWordChar(text.charAt(n + 3));
+	}
+
+	// true if text[n] starts s, re, ve, ll, d or m ending a word
+	private static boolean isClitic(String text, int n) {
+		int end = n;
+		while (end < text.length() && isWordChar(text.charAt(end))) end++;
+		if (end - n < 1 || end - n > 2) return false;
+		String clitic = text.substring(n, end).toLowerCase();
+		return clitic.equals("s") || clitic.equals("re") || clitic.equals("ve")
+				|| clitic.equals("ll") || clitic.equals("d") || clitic.equals("m");
+	}
+
+	/**
+	 * Open2OHTokenizer.getCapitalization() of text[begin, end), counting
+	 * upper case letters instead of filling a mask.
+	 */
+	public static int getCapitalization(String text, int begin, int end) {
+		int upper = 0;
+		for (int i = begin; i < end; i++)
+			if (Character.isUpperCase(text.charAt(i))) upper++;
+		if (upper == 0) return Open2OHTokenizer.CAPS_NONE;
+		if (upper == end - begin) return Open2OHTokenizer.CAPS_ALL;
+		if (upper == 1 && Character.isUpperCase(text.charAt(begin)))
+			return Open2OHTokenizer.CAPS_FIRST_ONLY;
+		return Open2OHTokenizer.CAPS_MIXED;
+	}
+}
@@ -25,6 +25,7 @@
 package org.ohnlp.medtagger.ae;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import org.apache.log4j.Logger;
@@ -38,7 +39,6 @@ import org.ohnlp.typesystem.type.syntax.ContractionToken;
 import org.ohnlp.typesystem.type.syntax.PunctuationToken;
 import org.ohnlp.typesystem.type.syntax.NumToken;
 import org.ohnlp.typesystem.type.syntax.WordToken;
-import org.ohnlp.typesystem.type.textspan.Sentence;
 
 public class LineSentenceDetector  extends JCasAnnotator_ImplBase {
 
@@ -58,22 +58,17 @@ public class LineSentenceDetector  extends JCasAnnotator_ImplBase {
 		JFSIndexRepository indexes = jCas.getJFSIndexRepository();
 		
 		Iterator<?> btItr = indexes.getAnnotationIndex(BaseToken.type).iterator();
-		Iterator<?> sentItr = indexes.getAnnotationIndex(Sentence.type).iterator();
 		String docText=jCas.getDocumentText();
 		char[] charArray=docText.toCharArray(); 
 		ArrayList<BaseToken> btList=new ArrayList<BaseToken>();
-		ArrayList<Sentence> sentList=new ArrayList<Sentence>();
-		ArrayList<Sentence> newsentList=new ArrayList<Sentence>();
 		ArrayList<BaseToken> newbtList=new ArrayList<BaseToken>();
+		int[] newlines=new int[16];
+		int nnl=0;
 		
 		while (btItr.hasNext()) {
 		   BaseToken bt= (BaseToken) btItr.next();
 		   btList.add(bt);				
 		}
-		while (sentItr.hasNext()) {
-			   Sentence sent= (Sentence) sentItr.next();
-			   sentList.add(sent);	
-			}
 		
 		int btsize=btList.size();
 		BaseToken pbt=null;
@@ -83,6 +78,8 @@ public class LineSentenceDetector  extends JCasAnnotator_ImplBase {
 			if(ch==crChar||ch==nlChar){ 
 				 NewlineToken nlToken=new NewlineToken(jCas, i, i+1);
 				 newbtList.add(nlToken);
+				 if(nnl==newlines.length) newlines=Arrays.copyOf(newlines, nnl*2);
+				 newlines[nnl++]=i;
 				 }
 		}
 		for(int i=0; i<btsize; i++){
@@ -112,7 +109,9 @@ public class LineSentenceDetector  extends JCasAnnotator_ImplBase {
 			    cToken.setPartOfSpeech(bt.getPartOfSpeech());
 			    newbtList.add(cToken);
 				}
-			 else if(bt.getPartOfSpeech().equals("CD")){
+			 // untagged if the aggregate has no POS tagger; longer numbers
+			 // then become word tokens below
+			 else if("CD".equals(bt.getPartOfSpeech())){
 				 NumToken nToken=new NumToken(jCas, bt.getBegin(), bt.getEnd());
 				 nToken.setPartOfSpeech(bt.getPartOfSpeech());
 				 newbtList.add(nToken);				
@@ -158,33 +157,12 @@ public class LineSentenceDetector  extends JCasAnnotator_ImplBase {
 			bt.setTokenNumber(i);
 			bt.addToIndexes(jCas);
 		}
+		TokenTable.clear(jCas);
 
-		JFSIndexRepository indexes1 = jCas.getJFSIndexRepository();		
-		
-		for(int i=0; i<sentList.size(); i++){
-			Sentence sent=(Sentence) sentList.get(i);
-			Iterator<?> nlItr = indexes1.getAnnotationIndex(NewlineToken.type).subiterator(sent);
-			ArrayList <NewlineToken> nlList=new ArrayList<NewlineToken>();
-			while (nlItr.hasNext()) {
-				   NewlineToken bt= (NewlineToken) nlItr.next();
-				   nlList.add(bt);				
-				}
-			int spos=sent.getBegin();
-			for(int j=0; j<nlList.size(); j++){
-				NewlineToken bt=(NewlineToken) nlList.get(j);
-				if(bt.getBegin()<sent.getEnd()){
-					newsentList.add(new Sentence(jCas,spos,bt.getBegin()));
-				}
-				spos=bt.getEnd();
-			}
-			if(spos < sent.getEnd()) newsentList.add(new Sentence(jCas, spos, sent.getEnd()));
-			sent.removeFromIndexes(jCas);
-		}
-		
-		for(int i=0; i<newsentList.size(); i++){
-			Sentence sent=(Sentence) newsentList.get(i);
-			sent.addToIndexes(jCas);
-		}
+		// split the sentences at the newlines in them, writing only those that change
+		SentenceLayout layout=SentenceLayout.read(jCas);
+		layout.splitAt(newlines, nnl);
+		layout.write(jCas);
 		}
 	
 			 
@@ -26,6 +26,7 @@ package org.ohnlp.medtagger.ae;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.apache.uima.analysis_component.JCasAnnotator_ImplBase;
@@ -38,7 +39,6 @@ import org.ohnlp.typesystem.type.syntax.ContractionToken;
 import org.ohnlp.typesystem.type.syntax.PunctuationToken;
 import org.ohnlp.typesystem.type.syntax.NumToken;
 import org.ohnlp.typesystem.type.syntax.WordToken;
-import org.ohnlp.typesystem.type.textspan.Sentence;
 
 public class Open2OHTokenizer  extends JCasAnnotator_ImplBase {
 
@@ -50,130 +50,141 @@ public class Open2OHTokenizer  extends JCasAnnotator_ImplBase {
 	public static final byte CAPS_FIRST_ONLY = 3;
 	public static final byte CAPS_ALL = 4;
 
-	final char crChar = '\r';
-	final char nlChar = '\n';
-	final char aposChar = '\'';
+	static final char crChar = '\r';
+	static final char nlChar = '\n';
+	static final char aposChar = '\'';
 
-	public void process(JCas jCas) throws AnalysisEngineProcessException {
+	// kinds of the tokens made by convert()
+	public static final int WORD = 0;
+	public static final int NUM = 1;
+	public static final int PUNCT = 2;
+	public static final int CONTRACTION = 3;
+
+	/**
+	 * Receives the tokens that convert() makes from one OpenNLP token.
+	 */
+	public interface TokenSink {
+		void token(int kind, int begin, int end, String pos);
+	}
+
+	public void process(final JCas jCas) throws AnalysisEngineProcessException {
 		JFSIndexRepository indexes = jCas.getJFSIndexRepository();
 		
 		Iterator<?> btItr = indexes.getAnnotationIndex(BaseToken.type).iterator();
-		Iterator<?> sentItr = indexes.getAnnotationIndex(Sentence.type).iterator();
 		String docText=jCas.getDocumentText();
 		char[] charArray=docText.toCharArray(); 
 		ArrayList<BaseToken> btList=new ArrayList<BaseToken>();
-		ArrayList<Sentence> sentList=new ArrayList<Sentence>();
-		ArrayList<BaseToken> newbtList=new ArrayList<BaseToken>();
+		final ArrayList<BaseToken> newbtList=new ArrayList<BaseToken>();
+		TokenSink sink=new TokenSink(){
+			public void token(int kind, int begin, int end, String pos){
+				BaseToken token;
+				if(kind==PUNCT) token=new PunctuationToken(jCas, begin, end);
+				else if(kind==NUM) token=new NumToken(jCas, begin, end);
+				else if(kind==CONTRACTION) token=new ContractionToken(jCas, begin, end);
+				else{
+					WordToken wToken=new WordToken(jCas, begin, end);
+					wToken.setCapitalization(getCapitalization(wToken.getCoveredText()));
+					token=wToken;
+				}
+				token.setPartOfSpeech(pos);
+				newbtList.add(token);
+			}
+		};
 		while (btItr.hasNext()) {
 		   BaseToken bt= (BaseToken) btItr.next();
 		   btList.add(bt);				
 		}
-		while (sentItr.hasNext()) {
-			   Sentence sent= (Sentence) sentItr.next();
-			   sentList.add(sent);				
-			}
+		// sentences split at newlines are built in memory and written once
+		SentenceLayout layout=SentenceLayout.read(jCas);
+		List<SentenceLayout.Span> sentList=layout.getSpans();
 		int btsize=btList.size();
 		BaseToken pbt=null;
 		if(sentList.size()>0){
-		Sentence csent=(Sentence) sentList.get(0);
+		ArrayList<SentenceLayout.Span> newsentList=new ArrayList<SentenceLayout.Span>();
+		SentenceLayout.Span csent=sentList.get(0);
 		int sentIndex=1;
 		for(int i=0; i<btsize; i++){
 			 BaseToken bt=(BaseToken) btList.get(i);
-			 if(bt.getBegin()>csent.getEnd()) csent=(Sentence)sentList.get(sentIndex++);
+			 if(bt.getBegin()>csent.end){
+				 newsentList.add(csent);
+				 csent=sentList.get(sentIndex++);
+			 }
 			 if(pbt!=null && pbt.getEnd()+1==bt.getBegin()){
 			   char ch=charArray[pbt.getEnd()];	 
 			    if(ch==crChar||ch==nlChar){ 
 				 NewlineToken nlToken=new NewlineToken(jCas, pbt.getEnd(), pbt.getEnd()+1);
 				 newbtList.add(nlToken);
 			 // correcting sentence detection issue (clinical text may not use the period as the end of sentences
-				 if(csent.getEnd() > pbt.getEnd() && csent.getBegin() < pbt.getEnd()){
-				   csent.removeFromIndexes();
-				   Sentence nsent=new Sentence(jCas,csent.getBegin(),pbt.getEnd());
-				   nsent.setSegment(csent.getSegment());
-				   nsent.addToIndexes();
-				   Sentence nsent1=new Sentence(jCas,pbt.getEnd(),csent.getEnd());
-				   nsent1.setSegment(csent.getSegment());
-				   csent=nsent1;
-				   csent.addToIndexes();
+				 if(csent.end > pbt.getEnd() && csent.begin < pbt.getEnd()){
+				   newsentList.add(layout.span(csent.begin, pbt.getEnd(), csent));
+				   csent=layout.span(pbt.getEnd(), csent.end, csent);
 			   }
 			   }
 			  }
-			  if(bt.getEnd()-bt.getBegin()==1){
-				 char ch=charArray[bt.getBegin()];
-				 if(!Character.isLetterOrDigit(ch)){
-					 PunctuationToken pToken=new PunctuationToken(jCas, bt.getBegin(), bt.getEnd());
-					 pToken.setPartOfSpeech(bt.getPartOfSpeech());
-					 newbtList.add(pToken);
-				 }
-				 else if (Character.isDigit(ch)){
-					 NumToken nToken=new NumToken(jCas, bt.getBegin(), bt.getEnd());
-					 nToken.setPartOfSpeech(bt.getPartOfSpeech());
-					 newbtList.add(nToken);			 
-				}
-				 else{
-					 WordToken wToken=new WordToken(jCas, bt.getBegin(), bt.getEnd());
-					 wToken.setPartOfSpeech(bt.getPartOfSpeech());
-					 wToken.setCapitalization(getCapitalization(bt.getCoveredText()));
-					 newbtList.add(wToken);		 		 
-				 }
-			  }
-			 
-			 else if(charArray[bt.getBegin()]==aposChar && bt.getEnd()-bt.getBegin()>1){
-				ContractionToken cToken=new ContractionToken(jCas,bt.getBegin(), bt.getEnd());
-			    cToken.setPartOfSpeech(bt.getPartOfSpeech());
-			    newbtList.add(cToken);
-				}
-			 else if(bt.getPartOfSpeech().equals("CD")){
-				 NumToken nToken=new NumToken(jCas, bt.getBegin(), bt.getEnd());
-				 nToken.setPartOfSpeech(bt.getPartOfSpeech());
-				 newbtList.add(nToken);				
-			 }
-			 else{
-				 String tokenText=bt.getCoveredText()+"E";
-				 String[] splits=tokenText.split("[\\W]");
-				 if(splits.length==1){
-				 WordToken wToken=new WordToken(jCas, bt.getBegin(), bt.getEnd());
-				 wToken.setPartOfSpeech(bt.getPartOfSpeech());
-				 wToken.setCapitalization(getCapitalization(bt.getCoveredText()));
-				 newbtList.add(wToken);
-				 }
-				 else{
-					 int pos=bt.getBegin();
-					 for(int j=0; j<splits.length; j++){
-						 if(j>0){
-							 PunctuationToken pToken=new PunctuationToken(jCas, pos, pos+1);
-							 pToken.setPartOfSpeech(pToken.getCoveredText());
-							 newbtList.add(pToken);
-				             pos+=1;
-						 }
-						 if(j==splits.length-1){
-							 if(splits[j].equals("E")) continue;
-							 splits[j]=splits[j].substring(0,splits[j].length()-1);
-						 }
-						 if(splits[j].length()!=0) {
-							 WordToken wToken=new WordToken(jCas,pos,pos+splits[j].length()); 
-							 wToken.setPartOfSpeech(bt.getPartOfSpeech());
-							 wToken.setCapitalization(getCapitalization(splits[j]));
-							 newbtList.add(wToken);
-							 pos+=splits[j].length();	
-						 }
-					 }
-					 
-				 }
-			 } 
+			 convert(docText, bt.getBegin(), bt.getEnd(), bt.getPartOfSpeech(), sink);
 			 pbt=bt;
              bt.removeFromIndexes();
 		}
 		
+		newsentList.add(csent);
+		newsentList.addAll(sentList.subList(sentIndex, sentList.size()));
+		layout.setSpans(newsentList);
+		layout.write(jCas);
+
 		for(int i=0; i<newbtList.size(); i++){
 			BaseToken bt=(BaseToken) newbtList.get(i);
 			bt.setTokenNumber(i);
 			bt.addToIndexes();
 		}
+		TokenTable.clear(jCas);
 		}
 	}
 			 
 
+	/**
+	 * Converts the OpenNLP token text[begin..end), tagged pos, into word,
+	 * number, punctuation and contraction tokens. Words containing non-word
+	 * characters are split around them.
+	 */
+	public static void convert(String text, int begin, int end, String pos, TokenSink sink){
+		if(end-begin==1){
+			char ch=text.charAt(begin);
+			if(!Character.isLetterOrDigit(ch)) sink.token(PUNCT, begin, end, pos);
+			else if (Character.isDigit(ch)) sink.token(NUM, begin, end, pos);
+			else sink.token(WORD, begin, end, pos);
+		}
+		else if(text.charAt(begin)==aposChar && end-begin>1){
+			sink.token(CONTRACTION, begin, end, pos);
+		}
+		else if(pos.equals("CD")){
+			sink.token(NUM, begin, end, pos);
+		}
+		else{
+			String tokenText=text.substring(begin, end)+"E";
+			String[] splits=tokenText.split("[\\W]");
+			if(splits.length==1){
+				sink.token(WORD, begin, end, pos);
+			}
+			else{
+				int p=begin;
+				for(int j=0; j<splits.length; j++){
+					if(j>0){
+						sink.token(PUNCT, p, p+1, text.substring(p, p+1));
+						p+=1;
+					}
+					if(j==splits.length-1){
+						if(splits[j].equals("E")) continue;
+						splits[j]=splits[j].substring(0,splits[j].length()-1);
+					}
+					if(splits[j].length()!=0) {
+						sink.token(WORD, p, p+splits[j].length(), pos);
+						p+=splits[j].length();
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * Applies capitalization rules to the given token. This should normally
 	 * only be used for tokens containing strictly text, but mixtures of
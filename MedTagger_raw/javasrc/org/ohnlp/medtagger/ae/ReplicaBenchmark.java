@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.ae;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.jcas.JCas;
+import org.ohnlp.medtagger.util.ResourceRegistry;
+
+/**
+ * Starts an aggregate with 1, 4 and 8 pipeline replicas, each with its own
+ * resource manager as with processingUnitThreadCount above 1, and reports
+ * the start up time and the heap used after it. Then every replica
+ * processes the notes in its own thread, and their concept mentions must
+ * be those of a single replica. With the models and the other resources
+ * shared through the ResourceRegistry, time and heap hardly grow with the
+ * threads.
+ *
+ * usage: ReplicaBenchmark aggregate data_path notes [threads...]
+ */
+public class ReplicaBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("usage: ReplicaBenchmark aggregate data_path notes [threads...]");
+			System.exit(1);
+		}
+		int[] counts = { 1, 4, 8 };
+		if (args.length > 3) {
+			counts = new int[args.length - 3];
+			for (int i = 3; i < args.length; i++) counts[i - 3] = Integer.parseInt(args[i]);
+		}
+		final List<String> notes = TokenizerBenchmark.readNotes(new File(args[2]));
+		long base = usedHeap();
+		System.out.println(String.format("notes: %d, heap before: %d MB", notes.size(), base >> 20));
+
+		List<HashSet<String>> expected = null;
+		boolean same = true;
+		for (int n : counts) {
+			// start from nothing loaded, as a new JVM would
+			ResourceRegistry.clear();
+			final AnalysisEngine[] engines = new AnalysisEngine[n];
+			final Exception[] errors = new Exception[n];
+			final String descriptor = args[0], dataPath = args[1];
+			long start = System.currentTimeMillis();
+			Thread[] threads = new Thread[n];
+			for (int i = 0; i < n; i++) {
+				final int k = i;
+				threads[i] = new Thread() {
+					public void run() {
+						try {
+							engines[k] = TokenizerBenchmark.produce(descriptor, dataPath);
+						} catch (Exception e) {
+							errors[k] = e;
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for (Thread thread : threads) thread.join();
+			long startup = System.currentTimeMillis() - start;
+			for (Exception e : errors) if (e != null) throw e;
+			long heap = usedHeap();
+
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			final List<HashSet<String>>[] outputs = new List[n];
+			start = System.currentTimeMillis();
+			for (int i = 0; i < n; i++) {
+				final int k = i;
+				threads[i] = new Thread() {
+					public void run() {
+						try {
+							outputs[k] = new ArrayList<HashSet<String>>();
+							JCas jCas = engines[k].newJCas();
+							for (String note : notes) {
+								TokenizerBenchmark.run(engines[k], jCas, note, null);
+								outputs[k].add(TokenizerBenchmark.mentions(jCas));
+							}
+						} catch (Exception e) {
+							errors[k] = e;
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for (Thread thread : threads) thread.join();
+			long process = System.currentTimeMillis() - start;
+			for (Exception e : errors) if (e != null) throw e;
+			if (expected == null) expected = outputs[0];
+			for (List<HashSet<String>> output : outputs) same &= expected.equals(output);
+
+			System.out.println(String.format(
+					"threads %d: start up %d ms, heap %d MB (%+d MB over the JVM), processing %d ms, output %s",
+					n, startup, heap >> 20, (heap - base) >> 20, process,
+					same ? "same" : "DIFFERS"));
+			for (AnalysisEngine engine : engines) engine.destroy();
+		}
+		ResourceRegistry.clear();
+		if (!same) System.exit(1);
+	}
+
+	static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.ae;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.jcas.JCas;
+import org.ohnlp.typesystem.type.textspan.Sentence;
+
+/**
+ * Compares the sentence segmentation of two aggregates on a note corpus:
+ * the OpenNLP SentenceDetectorAE followed by LineSentenceDetectorAE, and
+ * ClinicalSentenceSegmenterAE. Times the aggregates as a whole, with the
+ * delegate times as TokenizerBenchmark reports them, and reports how many
+ * sentences and concept mentions the two agree on. Sentences are compared without the whitespace around them, and empty
+ * ones are left out, as the segmenter makes none.
+ *
+ * usage: SentenceBenchmark baseline_aggregate segmenter_aggregate data_path
+ * notes [rounds]
+ *
+ * The delegate times are counted in milliseconds, too coarse for the
+ * sentence stages; aggregates of only these stages are timed best as a
+ * whole. Whole pipelines also compare the mentions.
+ */
+public class SentenceBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("usage: SentenceBenchmark baseline_aggregate segmenter_aggregate data_path notes [rounds]");
+			System.exit(1);
+		}
+		int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+		List<String> notes = TokenizerBenchmark.readNotes(new File(args[3]));
+		long chars = 0;
+		for (String note : notes) chars += note.length();
+		System.out.println("notes: " + notes.size() + ", characters: " + chars);
+
+		AnalysisEngine baseline = TokenizerBenchmark.produce(args[0], args[2]);
+		AnalysisEngine segmenter = TokenizerBenchmark.produce(args[1], args[2]);
+		JCas baseCas = baseline.newJCas();
+		JCas segCas = segmenter.newJCas();
+
+		// warm up and compare the output once, then time
+		long baseSentences = 0, segSentences = 0, sameSentences = 0;
+		long baseMentions = 0, segMentions = 0, sameMentions = 0;
+		for (String note : notes) {
+			TokenizerBenchmark.run(baseline, baseCas, note, null);
+			TokenizerBenchmark.run(segmenter, segCas, note, null);
+			HashSet<String> sentences = sentences(baseCas);
+			HashSet<String> segSet = sentences(segCas);
+			baseSentences += sentences.size();
+			segSentences += segSet.size();
+			sentences.retainAll(segSet);
+			sameSentences += sentences.size();
+			HashSet<String> mentions = TokenizerBenchmark.mentions(baseCas);
+			segSet = TokenizerBenchmark.mentions(segCas);
+			baseMentions += mentions.size();
+			segMentions += segSet.size();
+			mentions.retainAll(segSet);
+			sameMentions += mentions.size();
+		}
+
+		TreeMap<String, Long> baseTimes = new TreeMap<String, Long>();
+		TreeMap<String, Long> segTimes = new TreeMap<String, Long>();
+		long baseTotal = 0, segTotal = 0;
+		for (int r = 0; r < rounds; r++) {
+			for (String note : notes) {
+				long start = System.nanoTime();
+				TokenizerBenchmark.run(baseline, baseCas, note, baseTimes);
+				baseTotal += System.nanoTime() - start;
+				start = System.nanoTime();
+				TokenizerBenchmark.run(segmenter, segCas, note, segTimes);
+				segTotal += System.nanoTime() - start;
+			}
+		}
+		int runs = rounds * notes.size();
+		TokenizerBenchmark.report("baseline", baseTimes, runs);
+		TokenizerBenchmark.report("segmenter", segTimes, runs);
+
+		System.out.println(String.format(
+				"aggregates: baseline %.3f ms/note, segmenter %.3f ms/note, speedup %.1fx",
+				baseTotal / 1e6 / runs, segTotal / 1e6 / runs, (double) baseTotal / segTotal));
+		System.out.println(String.format(
+				"sentences: baseline %d, segmenter %d, same span %d (%.1f%%)",
+				baseSentences, segSentences, sameSentences,
+				100.0 * sameSentences / Math.max(1, baseSentences)));
+		System.out.println(String.format(
+				"mentions: baseline %d, segmenter %d, same span and concept %d (%.1f%%)",
+				baseMentions, segMentions, sameMentions,
+				100.0 * sameMentions / Math.max(1, baseMentions)));
+		baseline.destroy();
+		segmenter.destroy();
+	}
+
+	// the trimmed, non empty sentence spans
+	static HashSet<String> sentences(JCas jCas) {
+		HashSet<String> sentences = new HashSet<String>();
+		String text = jCas.getDocumentText();
+		Iterator<?> it = jCas.getAnnotationIndex(Sentence.type).iterator();
+		while (it.hasNext()) {
+			Sentence sentence = (Sentence) it.next();
+			int begin = sentence.getBegin(), end = sentence.getEnd();
+			while (begin < end && Character.isWhitespace(text.charAt(begin))) begin++;
+			while (end > begin && Character.isWhitespace(text.charAt(end - 1))) end--;
+			if (end > begin) sentences.add(begin + "-" + end);
+		}
+		return sentences;
+	}
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.ae;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.uima.jcas.JCas;
+import org.ohnlp.typesystem.type.textspan.Segment;
+import org.ohnlp.typesystem.type.textspan.Sentence;
+
+/**
+ * The sentences of a document, rebuilt in memory and written back to the
+ * CAS index once.
+ *
+ * Splitting sentences at newlines and assigning them to sections used to
+ * remove and add Sentence annotations for every change, and every sentence
+ * again just to set its id and segment. A SentenceLayout reads the index
+ * once; stages then replace spans and set ids and segments on the Span
+ * objects, and write() removes only the sentences that are gone and adds
+ * only the new ones. Ids and segments are no index keys, so they are set
+ * on the annotations that stay in place.
+ */
+public class SentenceLayout {
+
+	/**
+	 * One sentence to be: its span, the Sentence it is taken from if the
+	 * span is unchanged, and its id and segment.
+	 */
+	public static class Span {
+		public final int begin;
+		public final int end;
+		// index of the Sentence read with the same span, -1 for a new one
+		final int source;
+		public String id;
+		public Segment segment;
+
+		Span(int begin, int end, int source, String id, Segment segment) {
+			this.begin = begin;
+			this.end = end;
+			this.source = source;
+			this.id = id;
+			this.segment = segment;
+		}
+	}
+
+	final ArrayList<Sentence> sentences = new ArrayList<Sentence>();
+	List<Span> spans = new ArrayList<Span>();
+
+	/**
+	 * @return the sentences of the index, in index order
+	 */
+	public static SentenceLayout read(JCas jCas) {
+		SentenceLayout layout = new SentenceLayout();
+		Iterator<?> sentItr = jCas.getJFSIndexRepository()
+				.getAnnotationIndex(Sentence.type).iterator();
+		while (sentItr.hasNext()) {
+			Sentence sent = (Sentence) sentItr.next();
+			layout.spans.add(new Span(sent.getBegin(), sent.getEnd(),
+					layout.sentences.size(), sent.getId(), sent.getSegment()));
+			layout.sentences.add(sent);
+		}
+		return layout;
+	}
+
+	public List<Span> getSpans() {
+		return spans;
+	}
+
+	/**
+	 * Replaces the sentences; spans not passed are removed by write().
+	 */
+	public void setSpans(List<Span> spans) {
+		this.spans = spans;
+	}
+
+	/**
+	 * @return a sentence [begin, end) cut from from, in from's segment
+	 */
+	public Span span(int begin, int end, Span from) {
+		if (begin == from.begin && end == from.end)
+			return new Span(begin, end, from.source, from.id, from.segment);
+		return new Span(begin, end, -1, null, from.segment);
+	}
+
+	/**
+	 * Splits every sentence at the newline characters in it, at the sorted
+	 * offsets newlines[0..n). The newlines themselves are in no sentence;
+	 * adjacent newlines give empty sentences.
+	 */
+	public void splitAt(int[] newlines, int n) {
+		ArrayList<Span> split = new ArrayList<Span>(spans.size());
+		int nl = 0;
+		for (Span sent : spans) {
+			// sentences come in the order of their begins
+			while (nl < n && newlines[nl] < sent.begin) nl++;
+			int k = nl;
+			if (k >= n || newlines[k] >= sent.end) {
+				split.add(sent);
+				continue;
+			}
+			int spos = sent.begin;
+			for (; k < n && newlines[k] < sent.end; k++) {
+				split.add(span(spos, newlines[k], sent));
+				spos = newlines[k] + 1;
+			}
+			if (spos < sent.end) split.add(span(spos, sent.end, sent));
+		}
+		spans = split;
+	}
+
+	/**
+	 * Brings the index in line with the spans.
+	 */
+	public void write(JCas jCas) {
+		boolean[] kept = new boolean[sentences.size()];
+		ArrayList<Span> added = new ArrayList<Span>();
+		for (Span span : spans) {
+			if (span.source < 0 || kept[span.source]) {
+				added.add(span);
+				continue;
+			}
+			kept[span.source] = true;
+			Sentence sent = sentences.get(span.source);
+			if (span.id != sent.getId()) sent.setId(span.id);
+			if (span.segment != sent.getSegment()) sent.setSegment(span.segment);
+		}
+		for (int i = 0; i < kept.length; i++)
+			if (!kept[i]) sentences.get(i).removeFromIndexes(jCas);
+		for (Span span : added) {
+			Sentence sent = new Sentence(jCas, span.begin, span.end);
+			if (span.id != null) sent.setId(span.id);
+			if (span.segment != null) sent.setSegment(span.segment);
+			sent.addToIndexes(jCas);
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.ae;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.text.AnnotationIndex;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.ohnlp.medtagger.lvg.TokenVocabulary;
+import org.ohnlp.typesystem.type.syntax.BaseToken;
+import org.ohnlp.typesystem.type.syntax.ContractionToken;
+import org.ohnlp.typesystem.type.syntax.NewlineToken;
+import org.ohnlp.typesystem.type.syntax.NumToken;
+import org.ohnlp.typesystem.type.syntax.PunctuationToken;
+import org.ohnlp.typesystem.type.syntax.SymbolToken;
+import org.ohnlp.typesystem.type.syntax.WordToken;
+
+/**
+ * The tokens of a document as parallel arrays: begin, end, kind and
+ * canonical id of each token, in the order of the BaseToken index.
+ *
+ * Annotators that read every token walk the index with subiterators and
+ * cast each token to get at its features. get() builds the table with one
+ * walk of the token index and keeps it for the thread, so the next
+ * annotator of the same document reads the arrays instead. Only the table
+ * of the document a thread works on is kept: the table holds the tokens and
+ * with them the CAS, and a CAS that is dropped must not stay reachable. The
+ * table is rebuilt when the CAS, the document or its tokens change; stages
+ * that change tokens in place call clear().
+ *
+ * Tables are kept per thread and assume that the annotators of a CAS run on
+ * one thread, as in an aggregate. A table is only reused for the CAS it was
+ * built of, but clear() and setNormId() reach the table of the calling
+ * thread only: a stage that changes tokens on another thread leaves the
+ * table of this one stale.
+ */
+public class TokenTable {
+
+	public static final byte OTHER = 0;
+	public static final byte WORD = 1;
+	public static final byte NUM = 2;
+	public static final byte PUNCTUATION = 3;
+	public static final byte CONTRACTION = 4;
+	public static final byte NEWLINE = 5;
+	public static final byte SYMBOL = 6;
+
+	// the table of the document each thread processes
+	private static final ThreadLocal<TokenTable> tables = new ThreadLocal<TokenTable>();
+
+	final CAS cas;
+	final String text;
+	int size;
+	int[] begins;
+	int[] ends;
+	byte[] kinds;
+	int[] normIds;
+	// the vocabulary of the ids set by setNormId, null for those read from
+	// the tokens, whose vocabulary is not known
+	TokenVocabulary vocabulary;
+	BaseToken[] tokens;
+
+	private TokenTable(JCas jCas, int capacity) {
+		this.cas = jCas.getCas();
+		this.text = jCas.getDocumentText();
+		begins = new int[capacity];
+		ends = new int[capacity];
+		kinds = new byte[capacity];
+		normIds = new int[capacity];
+		tokens = new BaseToken[capacity];
+	}
+
+	/**
+	 * @return the table of the tokens of the CAS, built now unless kept from
+	 *         an earlier annotator
+	 */
+	public static TokenTable get(JCas jCas) {
+		AnnotationIndex<Annotation> tokenIndex = jCas.getAnnotationIndex(BaseToken.type);
+		TokenTable table = tables.get();
+		if (table != null && table.isOf(jCas, tokenIndex))
+			return table;
+		table = build(jCas, tokenIndex);
+		tables.set(table);
+		return table;
+	}
+
+	/**
+	 * Drops the table of the CAS, e.g. after changing its tokens.
+	 */
+	public static void clear(JCas jCas) {
+		TokenTable table = tables.get();
+		if (table != null && table.cas == jCas.getCas()) tables.remove();
+	}
+
+	// a cheap check that the indexes are those the table was built of; the
+	// first token is a new object once the CAS was reset
+	private boolean isOf(JCas jCas, AnnotationIndex<Annotation> tokenIndex) {
+		if (cas != jCas.getCas() || text != jCas.getDocumentText()
+				|| size != tokenIndex.size())
+			return false;
+		if (size == 0) return true;
+		FSIterator<Annotation> it = tokenIndex.iterator();
+		return it.get() == tokens[0];
+	}
+
+	private static TokenTable build(JCas jCas, AnnotationIndex<Annotation> tokenIndex) {
+		TokenTable table = new TokenTable(jCas, tokenIndex.size());
+		for (Iterator<Annotation> it = tokenIndex.iterator(); it.hasNext();) {
+			BaseToken token = (BaseToken) it.next();
+			int i = table.size++;
+			if (i == table.begins.length) table.grow();
+			table.tokens[i] = token;
+			table.begins[i] = token.getBegin();
+			table.ends[i] = token.getEnd();
+			if (token instanceof WordToken) {
+				table.kinds[i] = WORD;
+				table.normIds[i] = ((WordToken) token).getCanonicalId();
+			}
+			else if (token instanceof NumToken) table.kinds[i] = NUM;
+			else if (token instanceof PunctuationToken) table.kinds[i] = PUNCTUATION;
+			else if (token instanceof ContractionToken) table.kinds[i] = CONTRACTION;
+			else if (token instanceof NewlineToken) table.kinds[i] = NEWLINE;
+			else if (token instanceof SymbolToken) table.kinds[i] = SYMBOL;
+		}
+		return table;
+	}
+
+	private void grow() {
+		int n = Math.max(16, begins.length * 2);
+		begins = Arrays.copyOf(begins, n);
+		ends = Arrays.copyOf(ends, n);
+		kinds = Arrays.copyOf(kinds, n);
+		normIds = Arrays.copyOf(normIds, n);
+		tokens = Arrays.copyOf(tokens, n);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public int getBegin(int i) {
+		return begins[i];
+	}
+
+	public int getEnd(int i) {
+		return ends[i];
+	}
+
+	/**
+	 * @return WORD, NUM, PUNCTUATION, CONTRACTION, NEWLINE, SYMBOL or OTHER
+	 */
+	public byte getKind(int i) {
+		return kinds[i];
+	}
+
+	/**
+	 * @return the canonical id of a word, see LvgLookup; 0 for other tokens
+	 *         or without one
+	 */
+	public int getNormId(int i) {
+		return normIds[i];
+	}
+
+	/**
+	 * Sets the canonical id of a word, for the annotator that sets it on
+	 * the token.
+	 */
+	public void setNormId(int i, int id) {
+		normIds[i] = id;
+	}
+
+	/**
+	 * @return the vocabulary the canonical ids were set from, null if it is
+	 *         not known
+	 */
+	public TokenVocabulary getVocabulary() {
+		return vocabulary;
+	}
+
+	public void setVocabulary(TokenVocabulary vocabulary) {
+		this.vocabulary = vocabulary;
+	}
+
+	public BaseToken getToken(int i) {
+		return tokens[i];
+	}
+
+	/**
+	 * @return the first token beginning at offset or after it; with the
+	 *         tokens up to the end of an annotation that end within it, these
+	 *         are those of its subiterator
+	 */
+	public int firstToken(int offset) {
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (begins[mid] < offset) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the one character token text, or 0 if it is longer
+	 */
+	public char getChar(int i) {
+		return ends[i] - begins[i] == 1 ? text.charAt(begins[i]) : 0;
+	}
+
+	public String getCoveredText(int i) {
+		return text.substring(begins[i], ends[i]);
+	}
+}
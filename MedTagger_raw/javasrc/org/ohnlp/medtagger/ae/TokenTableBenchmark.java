@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.ae;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.JFSIndexRepository;
+import org.ohnlp.typesystem.type.syntax.BaseToken;
+import org.ohnlp.typesystem.type.syntax.NumToken;
+import org.ohnlp.typesystem.type.syntax.PunctuationToken;
+import org.ohnlp.typesystem.type.syntax.WordToken;
+import org.ohnlp.typesystem.type.textspan.Segment;
+import org.ohnlp.typesystem.type.textspan.Sentence;
+
+/**
+ * Times reading the tokens of a document the way the lookup did, by
+ * subiterators over segments, sentences and tokens with a cast and
+ * getCoveredText() per token, against building a TokenTable once and
+ * reading its arrays. Each note is run through the aggregate once, then
+ * both are timed on the CAS it left.
+ *
+ * usage: TokenTableBenchmark aggregate data_path notes [rounds]
+ */
+public class TokenTableBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("usage: TokenTableBenchmark aggregate data_path notes [rounds]");
+			System.exit(1);
+		}
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+		List<String> notes = TokenizerBenchmark.readNotes(new File(args[2]));
+		AnalysisEngine ae = TokenizerBenchmark.produce(args[0], args[1]);
+		JCas jCas = ae.newJCas();
+
+		long walkTime = 0, buildTime = 0, readTime = 0, tokens = 0;
+		long check = 0;
+		for (String note : notes) {
+			TokenizerBenchmark.run(ae, jCas, note, null);
+			tokens += TokenTable.get(jCas).size();
+			// warm up on the first notes
+			for (int r = 0; r < 20; r++) {
+				check += walk(jCas);
+				TokenTable.clear(jCas);
+				check += read(jCas, TokenTable.get(jCas));
+			}
+			long start = System.nanoTime();
+			for (int r = 0; r < rounds; r++) check += walk(jCas);
+			walkTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int r = 0; r < rounds; r++) {
+				TokenTable.clear(jCas);
+				TokenTable.get(jCas);
+			}
+			buildTime += System.nanoTime() - start;
+			TokenTable table = TokenTable.get(jCas);
+			start = System.nanoTime();
+			for (int r = 0; r < rounds; r++) check += read(jCas, table);
+			readTime += System.nanoTime() - start;
+		}
+		ae.destroy();
+
+		double runs = (double) rounds * notes.size();
+		double walk = walkTime / runs / 1e3, build = buildTime / runs / 1e3,
+				read = readTime / runs / 1e3;
+		System.out.println("notes: " + notes.size() + ", tokens/note: " + tokens / notes.size()
+				+ " (" + check % 10 + ")");
+		System.out.println(String.format("index walk: %.1f us/note", walk));
+		System.out.println(String.format("table: build %.1f us/note, read %.1f us/note", build, read));
+		for (int readers = 1; readers <= 4; readers++)
+			System.out.println(String.format(
+					"%d readers: walks %.1f us/note, table %.1f us/note, saved %.1f us/note",
+					readers, readers * walk, build + readers * read,
+					readers * walk - build - readers * read));
+	}
+
+	// the token walk of the lookup before the table
+	static long walk(JCas jCas) {
+		long sum = 0;
+		JFSIndexRepository indexes = jCas.getJFSIndexRepository();
+		Iterator<?> segItr = indexes.getAnnotationIndex(Segment.type).iterator();
+		while (segItr.hasNext()) {
+			Segment seg = (Segment) segItr.next();
+			Iterator<?> sentItr = indexes.getAnnotationIndex(Sentence.type).subiterator(seg);
+			while (sentItr.hasNext()) {
+				Sentence sent = (Sentence) sentItr.next();
+				Iterator<?> tokenItr = indexes.getAnnotationIndex(BaseToken.type).subiterator(sent);
+				while (tokenItr.hasNext()) {
+					BaseToken token = (BaseToken) tokenItr.next();
+					if (token instanceof WordToken)
+						sum += ((WordToken) token).getCanonicalId();
+					else if (token instanceof NumToken)
+						sum += token.getCoveredText().length();
+					else if (token instanceof PunctuationToken)
+						sum += token.getCoveredText().charAt(0);
+					sum += token.getBegin() + token.getEnd();
+				}
+			}
+		}
+		return sum;
+	}
+
+	// the same through the table
+	static long read(JCas jCas, TokenTable table) {
+		long sum = 0;
+		JFSIndexRepository indexes = jCas.getJFSIndexRepository();
+		Iterator<?> segItr = indexes.getAnnotationIndex(Segment.type).iterator();
+		while (segItr.hasNext()) {
+			Segment seg = (Segment) segItr.next();
+			Iterator<?> sentItr = indexes.getAnnotationIndex(Sentence.type).subiterator(seg);
+			while (sentItr.hasNext()) {
+				Sentence sent = (Sentence) sentItr.next();
+				int end = sent.getEnd();
+				for (int t = table.firstToken(sent.getBegin()); t < table.size()
+						&& table.getBegin(t) < end; t++) {
+					if (table.getEnd(t) > end) continue;
+					byte kind = table.getKind(t);
+					if (kind == TokenTable.WORD)
+						sum += table.getNormId(t);
+					else if (kind == TokenTable.NUM)
+						sum += table.getEnd(t) - table.getBegin(t);
+					else if (kind == TokenTable.PUNCTUATION)
+						sum += table.getText().charAt(table.getBegin(t));
+					sum += table.getBegin(t) + table.getEnd(t);
+				}
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.ae;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.analysis_engine.metadata.FixedFlow;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceManager;
+import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.util.ProcessTrace;
+import org.apache.uima.util.ProcessTraceEvent;
+import org.apache.uima.util.XMLInputSource;
+import org.ohnlp.medtagger.type.ConceptMention;
+import org.ohnlp.typesystem.type.syntax.BaseToken;
+
+/**
+ * Compares the tokenization of two aggregates on a note corpus: the OpenNLP
+ * TokenizerAE followed by Open2OHTokenizerAE or LineSentenceDetectorAE, and
+ * ClinicalTokenizerAE. Every note is run through both whole aggregates once,
+ * to report how many tokens and concept mentions the two agree on.
+ *
+ * The timing runs only the tokenization stages of each aggregate, timed as
+ * a whole with System.nanoTime(), against the speedup of 3x that
+ * ClinicalTokenizerAE is meant to reach. Both run on the sentences of the
+ * stages of the baseline aggregate before its first tokenization stage,
+ * run untimed on the same CAS, so neither the sentence detectors nor
+ * POSTaggerAE are counted; LineSentenceDetectorAE then sees no part of
+ * speech. The delegate times of the ProcessTrace are only reported as a
+ * breakdown, they are counted in milliseconds.
+ *
+ * usage: TokenizerBenchmark baseline_aggregate fused_aggregate data_path
+ * notes [rounds]
+ *
+ * notes is a text file or a directory of them; e.g. MedTaggerAggregateTAE
+ * against MedTaggerFastAggregateTAE. SentenceBenchmark compares the
+ * sentence detectors.
+ */
+public class TokenizerBenchmark {
+
+	// the timed stages
+	static final List<String> TOKENIZERS = Arrays.asList("TokenizerAE",
+			"Open2OHTokenizerAE", "LineSentenceDetectorAE", "ClinicalTokenizerAE");
+	static final double TARGET = 3;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("usage: TokenizerBenchmark baseline_aggregate fused_aggregate data_path notes [rounds]");
+			System.exit(1);
+		}
+		int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+		List<String> notes = readNotes(new File(args[3]));
+		long chars = 0;
+		for (String note : notes) chars += note.length();
+		System.out.println("notes: " + notes.size() + ", characters: " + chars);
+
+		AnalysisEngine baseline = produce(args[0], args[2]);
+		AnalysisEngine fused = produce(args[1], args[2]);
+		AnalysisEngine sentences = produce(args[0], args[2], sentenceStages(args[0]));
+		AnalysisEngine baseTokenizer = produce(args[0], args[2], TOKENIZERS);
+		AnalysisEngine fusedTokenizer = produce(args[1], args[2], TOKENIZERS);
+		JCas baseCas = baseline.newJCas();
+		JCas fusedCas = fused.newJCas();
+
+		// warm up and compare the output once, then time
+		long baseTokens = 0, fusedTokens = 0, sameTokens = 0;
+		long baseMentions = 0, fusedMentions = 0, sameMentions = 0;
+		for (String note : notes) {
+			run(baseline, baseCas, note, null);
+			run(fused, fusedCas, note, null);
+			HashSet<String> tokens = tokens(baseCas);
+			HashSet<String> fusedSet = tokens(fusedCas);
+			baseTokens += tokens.size();
+			fusedTokens += fusedSet.size();
+			tokens.retainAll(fusedSet);
+			sameTokens += tokens.size();
+			HashSet<String> mentions = mentions(baseCas);
+			fusedSet = mentions(fusedCas);
+			baseMentions += mentions.size();
+			fusedMentions += fusedSet.size();
+			mentions.retainAll(fusedSet);
+			sameMentions += mentions.size();
+		}
+
+		baseline.destroy();
+		fused.destroy();
+
+		// one CAS for both, with the types of every stage
+		JCas jCas = CasCreationUtils.createCas(Arrays.asList(
+				sentences.getProcessingResourceMetaData(),
+				baseTokenizer.getProcessingResourceMetaData(),
+				fusedTokenizer.getProcessingResourceMetaData())).getJCas();
+		// warm up the timed stages, then time them
+		for (String note : notes) {
+			runTokenizers(sentences, baseTokenizer, jCas, note, null);
+			runTokenizers(sentences, fusedTokenizer, jCas, note, null);
+		}
+		TreeMap<String, Long> baseTimes = new TreeMap<String, Long>();
+		TreeMap<String, Long> fusedTimes = new TreeMap<String, Long>();
+		long baseTotal = 0, fusedTotal = 0;
+		for (int r = 0; r < rounds; r++) {
+			for (String note : notes) {
+				baseTotal += runTokenizers(sentences, baseTokenizer, jCas, note, baseTimes);
+				fusedTotal += runTokenizers(sentences, fusedTokenizer, jCas, note, fusedTimes);
+			}
+		}
+		int runs = rounds * notes.size();
+		report("baseline", baseTimes, runs);
+		report("fused", fusedTimes, runs);
+
+		double speedup = (double) baseTotal / fusedTotal;
+		System.out.println(String.format(
+				"tokenizers: baseline %.3f ms/note, fused %.3f ms/note, speedup %.1fx (target %.0fx: %s)",
+				baseTotal / 1e6 / runs, fusedTotal / 1e6 / runs, speedup, TARGET,
+				speedup >= TARGET ? "met" : "missed"));
+		System.out.println(String.format(
+				"tokens: baseline %d, fused %d, same span and type %d (%.1f%%)",
+				baseTokens, fusedTokens, sameTokens, 100.0 * sameTokens / Math.max(1, baseTokens)));
+		System.out.println(String.format(
+				"mentions: baseline %d, fused %d, same span and concept %d (%.1f%%)",
+				baseMentions, fusedMentions, sameMentions, 100.0 * sameMentions / Math.max(1, baseMentions)));
+		sentences.destroy();
+		baseTokenizer.destroy();
+		fusedTokenizer.destroy();
+	}
+
+	static AnalysisEngine produce(String descriptor, String dataPath) throws Exception {
+		return produce(descriptor, dataPath, null);
+	}
+
+	/**
+	 * @param stages
+	 *            if not null, the fixed flow of the aggregate keeps only
+	 *            these delegates, in its order
+	 */
+	static AnalysisEngine produce(String descriptor, String dataPath,
+			List<String> stages) throws Exception {
+		AnalysisEngineDescription spec = parse(descriptor);
+		if (stages != null) {
+			FixedFlow flow = (FixedFlow) spec.getAnalysisEngineMetaData().getFlowConstraints();
+			ArrayList<String> nodes = new ArrayList<String>();
+			for (String node : flow.getFixedFlow())
+				if (stages.contains(node)) nodes.add(node);
+			flow.setFixedFlow(nodes.toArray(new String[nodes.size()]));
+		}
+		ResourceManager rm = UIMAFramework.newDefaultResourceManager();
+		rm.setDataPath(dataPath);
+		return UIMAFramework.produceAnalysisEngine(spec, rm, null);
+	}
+
+	static AnalysisEngineDescription parse(String descriptor) throws Exception {
+		return (AnalysisEngineDescription) UIMAFramework.getXMLParser()
+				.parseResourceSpecifier(new XMLInputSource(descriptor));
+	}
+
+	// the delegates of the aggregate before its first tokenization stage
+	static List<String> sentenceStages(String descriptor) throws Exception {
+		FixedFlow flow = (FixedFlow) parse(descriptor).getAnalysisEngineMetaData()
+				.getFlowConstraints();
+		ArrayList<String> stages = new ArrayList<String>();
+		for (String node : flow.getFixedFlow()) {
+			if (TOKENIZERS.contains(node)) break;
+			stages.add(node);
+		}
+		return stages;
+	}
+
+	static void run(AnalysisEngine ae, JCas jCas, String note,
+			Map<String, Long> times) throws Exception {
+		jCas.reset();
+		jCas.setDocumentText(note);
+		ProcessTrace trace = ae.process(jCas);
+		if (times != null) add(times, trace.getEvents());
+	}
+
+	/**
+	 * Runs sentences, then times tokenizers on its output.
+	 *
+	 * @return the nanoseconds tokenizers took
+	 */
+	static long runTokenizers(AnalysisEngine sentences, AnalysisEngine tokenizers,
+			JCas jCas, String note, Map<String, Long> times) throws Exception {
+		run(sentences, jCas, note, null);
+		long start = System.nanoTime();
+		ProcessTrace trace = tokenizers.process(jCas);
+		long time = System.nanoTime() - start;
+		if (times != null) add(times, trace.getEvents());
+		return time;
+	}
+
+	// the time of each delegate without that of its sub events
+	static void add(Map<String, Long> times, List<ProcessTraceEvent> events) {
+		for (ProcessTraceEvent event : events) {
+			if ("Analysis".equals(event.getType())) {
+				long time = event.getDuration();
+				for (ProcessTraceEvent sub : event.getSubEvents()) time -= sub.getDuration();
+				Long sum = times.get(event.getComponentName());
+				times.put(event.getComponentName(), (sum == null ? 0 : sum) + time * 1000000L);
+			}
+			add(times, event.getSubEvents());
+		}
+	}
+
+	static void report(String name, Map<String, Long> times, int runs) {
+		System.out.println(name + ":");
+		for (Map.Entry<String, Long> e : times.entrySet())
+			System.out.println(String.format("  %-50s %9.2f ms/note", e.getKey(),
+					e.getValue() / 1e6 / runs));
+	}
+
+	static HashSet<String> tokens(JCas jCas) {
+		HashSet<String> tokens = new HashSet<String>();
+		Iterator<?> it = jCas.getAnnotationIndex(BaseToken.type).iterator();
+		while (it.hasNext()) {
+			BaseToken token = (BaseToken) it.next();
+			tokens.add(token.getBegin() + "-" + token.getEnd() + " " + token.getType().getShortName());
+		}
+		return tokens;
+	}
+
+	static HashSet<String> mentions(JCas jCas) {
+		HashSet<String> mentions = new HashSet<String>();
+		Iterator<?> it = jCas.getAnnotationIndex(ConceptMention.type).iterator();
+		while (it.hasNext()) {
+			ConceptMention mention = (ConceptMention) it.next();
+			mentions.add(mention.getBegin() + "-" + mention.getEnd() + " " + mention.getNormTarget());
+		}
+		return mentions;
+	}
+
+	/**
+	 * @return the text of file, or of each file of the directory file in
+	 *         name order
+	 */
+	public static List<String> readNotes(File file) throws IOException {
+		ArrayList<String> notes = new ArrayList<String>();
+		File[] files = file.isDirectory() ? file.listFiles() : new File[] { file };
+		Arrays.sort(files);
+		for (File f : files) {
+			if (!f.isFile()) continue;
+			StringBuilder sb = new StringBuilder();
+			Reader reader = new InputStreamReader(new FileInputStream(f), "UTF-8");
+			try {
+				char[] buf = new char[8192];
+				for (int n; (n = reader.read(buf)) > 0;) sb.append(buf, 0, n);
+			} finally {
+				reader.close();
+			}
+			notes.add(sb.toString());
+		}
+		return notes;
+	}
+}
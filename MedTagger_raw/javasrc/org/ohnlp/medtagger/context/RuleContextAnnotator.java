@@ -54,7 +54,7 @@ public class RuleContextAnnotator extends JCasAnnotator_ImplBase {
 		super.initialize(aContext);
 		try {
 			contextFile= aContext.getResourceFilePath(PARAM_CONTEXT_FILE);
-			conText = new ConText(contextFile);
+			conText = ConText.get(contextFile);
 			
 		} catch (Exception e1) {
 			// TODO Auto-generated catch block
@@ -33,6 +33,8 @@ import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.ohnlp.medtagger.util.ResourceRegistry;
+
 
 
 
@@ -87,6 +89,19 @@ public class ConText {
 	private static final String regExUmlsTag = "\\[\\d+\\]"; 
 
 	
+	/**
+	 * @return the ConText of the file, shared by the whole JVM, see
+	 *         ResourceRegistry; it only holds compiled patterns, so threads
+	 *         can use it together
+	 */
+	public static ConText get(final String contextFile) throws IOException {
+		return ResourceRegistry.get("ConText rules", new ResourceRegistry.Loader<ConText>() {
+			public ConText load() throws IOException {
+				return new ConText(contextFile);
+			}
+		}, contextFile);
+	}
+
 	/**
 	 * Initialization regex (load parameters)
 	 * @throws FileNotFoundException 
@@ -36,16 +36,21 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.log4j.Logger;
 
 
-public class AhoCorasickDict {
+public class AhoCorasickDict implements LookupDict {
 
 	// LOG4J logger based on class name
    private Logger iv_logger = Logger.getLogger(getClass().getName());
@@ -57,6 +62,13 @@ public class AhoCorasickDict {
 	public static final String DICTDATADELIM="|";
 	public static final String LINEDELIM="\\n";
 	public Node root;
+	// terminal nodes, indexed by payload
+	ArrayList<Node> terminals=new ArrayList<Node>();
+	// parsed labels of the terminals, rebuilt after put()
+	private volatile DictEntries entries;
+	// key tokens by id; the strings are the children keys of the nodes
+	ArrayList<String> tokenList=new ArrayList<String>();
+	HashMap<String, Integer> tokenIds=new HashMap<String, Integer>();
 
 	AhoCorasickDict(){
 		root=new Node(null);
@@ -64,40 +76,112 @@ public class AhoCorasickDict {
 	}
 
 	public AhoCorasickDict(String dictfile){
+		this(dictfile, 1);
+	}
+
+	/**
+	 * @param parallelism number of threads for building the trie; with more
+	 *            than one, entries are split into shards by first token, the
+	 *            shards are built in a ForkJoinPool and fail links are
+	 *            computed level by level in parallel
+	 */
+	public AhoCorasickDict(String dictfile, int parallelism){
+		this(new String[]{dictfile}, parallelism);
+	}
+
+	/**
+	 * Merges several dictionaries into one trie; entries of dictfiles[i]
+	 * are source i, see DictEntries.getSource().
+	 */
+	public AhoCorasickDict(String[] dictfiles, int parallelism){
+		this(dictfiles, parallelism, null);
+	}
+
+	/**
+	 * @param filter the entries to load, all if null
+	 */
+	public AhoCorasickDict(String[] dictfiles, int parallelism, EntryFilter filter){
 		root=new Node(null);
 		root.addChild(FAILLINK, root);
-		iv_logger.info("building aho-corasick trie from: "+dictfile);
+		iv_logger.info("building aho-corasick trie from: "+join(dictfiles)
+				+(filter==null ? "" : ", semantic groups "+filter));
+		long start=System.currentTimeMillis();
+		long heap=usedHeap();
 		try{
-			BufferedReader reader = new BufferedReader
-					(new InputStreamReader
-							(new FileInputStream(dictfile)));
-			String line;
 			int count=0;
-			while ((line = reader.readLine()) != null) {
-				count++;
-				if(count%100000==0) iv_logger.info(count);
-				int index=line.indexOf(DICTDATADELIM);
-				if(index>=0){
-					String key=line.substring(0, index);
-					String data=line.substring(index+DICTDATADELIM.length());
-					put(key,data);
+			ArrayList<String> keys=new ArrayList<String>();
+			ArrayList<String> data=new ArrayList<String>();
+			for(int source=0; source<dictfiles.length; source++){
+				BufferedReader reader = new BufferedReader
+						(new InputStreamReader
+								(new FileInputStream(dictfiles[source])));
+				String line;
+				while ((line = reader.readLine()) != null) {
+					count++;
+					if(count%100000==0) iv_logger.info(count);
+					int index=line.indexOf(DICTDATADELIM);
+					// gap keys are matched by GapDict
+					if(index>=0 && !GapDict.isGapKey(line.substring(0, index))
+							&& EntryFilter.accept(filter, line.substring(index+DICTDATADELIM.length()))){
+						String key=line.substring(0, index);
+						String value=DictEntries.tag(source, line.substring(index+DICTDATADELIM.length()));
+						if(parallelism>1){
+							keys.add(key);
+							data.add(value);
+						}
+						else put(key,value);
+					}
+				}
+				reader.close();
+			}
+			if(parallelism>1){
+				ForkJoinPool pool=new ForkJoinPool(parallelism);
+				try{
+					long t=System.currentTimeMillis();
+					putAll(keys, data, pool);
+					keys=data=null;
+					long t2=System.currentTimeMillis();
+					faillinking(pool);
+					iv_logger.info("sharded trie built in "+(t2-t)+" ms, fail links in "
+							+(System.currentTimeMillis()-t2)+" ms");
+				}
+				finally{
+					pool.shutdown();
 				}
 			}
-			reader.close();
-			faillinking();
-			iv_logger.info("built aho-corasick trie. "+ count +" terms");
+			else faillinking();
+			getEntries();
+			iv_logger.info("built aho-corasick trie. "+ count +" terms in "
+					+(System.currentTimeMillis()-start)+" ms with "+Math.max(1, parallelism)
+					+" threads, heap grew by "+(usedHeap()-heap)/(1024*1024)+" MB");
 		}
 		catch (IOException ioe){
 			ioe.printStackTrace();			
 		}	
 	}
 
+	static String join(String[] files){
+		StringBuilder sb=new StringBuilder();
+		for(String file : files){
+			if(sb.length()>0) sb.append(", ");
+			sb.append(file);
+		}
+		return sb.toString();
+	}
+
+	static long usedHeap(){
+		Runtime rt=Runtime.getRuntime();
+		return rt.totalMemory()-rt.freeMemory();
+	}
+
 	class Node{
 
 		public HashMap <String, Node> children=new HashMap <String, Node> ();
 		public String phrase = null;
 		public String label=null;
 		public Node parent=null;
+		public int payload=-1;
+		public int depth=0;
 
 		Node(Node fl) {
 			phrase=null;
@@ -138,14 +222,24 @@ public class AhoCorasickDict {
 			if(node.phrase==null) {
 				node.phrase=phr; 
 				node.label=data;
+				node.payload=terminals.size();
+				terminals.add(node);
 			}
 			else node.label+=SLDELIM+data;
+			entries=null;
 			return node;
 		}
 		Node child=node.getChild(tokens[i]);
 		if(child==null){
+			Integer id=tokenIds.get(tokens[i]);
+			if(id==null){
+				id=tokenList.size();
+				tokenIds.put(tokens[i], id);
+				tokenList.add(tokens[i]);
+			}
 			child = new Node(root);
-			node.addChild(tokens[i], child);
+			child.depth=i+1;
+			node.addChild(tokenList.get(id), child);
 		}
 		return put(phr, tokens, i+1, data, child);
 	}
@@ -156,7 +250,7 @@ public class AhoCorasickDict {
 		for(int i=0; i<tokens.length; i++){
 			tags.add(new Vector<String>());
 		}
-		find(tokens, 0, root, tags);
+		find(tokens, tags);
 		String output=new String();
 		for(int i=0; i<tokens.length; i++){
 			output+=tokens[i]+"::";
@@ -167,50 +261,233 @@ public class AhoCorasickDict {
 		return output;
 	}
 
+	public void find(String[] tokens, final ArrayList<Vector<String>> tags){
+		find(tokens, tokens.length, false, new MatchHandler(){
+			public void match(int start, int length, int payload){
+				tags.get(start).add(create_tag(length, getLabel(payload)));
+			}
+		});
+	}
+
 	String create_tag(int len, String data){
 		return len+"::"+data;
 	}
 
-	public void find(String[] tokens, int i, Node node, ArrayList<Vector<String>> tags){
-
-		if(node.phrase!=null) {
-			String[] tks=node.phrase.split(DELIMITER);
-			int len=tks.length;
-			String tag=create_tag(len, node.label);
-			Vector<String> currentTags=tags.get(i-len);
-			currentTags.add(tag);
-			tags.set(i-len, currentTags);
-		}
-		if(i>tokens.length) return;
-		String token;
-		if(i==tokens.length) token="DUMMYWORD";
-		else token=tokens[i];
-		Node child=node.getChild(token);
-		if(child==null) {
-			child=node.getChild(FAILLINK);
-			if(node!=root) {
-				find(tokens, i, child, tags);
-				return;
+	Node step(Node node, String token){
+		Node child;
+		while((child=FAILLINK.equals(token) ? null : node.getChild(token))==null && node!=root)
+			node=node.getChild(FAILLINK);
+		return child==null ? root : child;
+	}
+
+	public void find(String[] tokens, int length, boolean longest, MatchHandler handler){
+		Node node=root;
+		int bestStart=-1, bestLen=0, bestPayload=-1;
+		int i=0;
+		while(true){
+			if(i==length){
+				if(bestStart<0) break;
+			}
+			else{
+				node=step(node, tokens[i]);
+				if(!longest){
+					for(Node n=node; n!=root; n=n.getChild(FAILLINK))
+						if(n.phrase!=null) handler.match(i-n.depth+1, n.depth, n.payload);
+					i++;
+					continue;
+				}
+				// the first terminal on the fail chain is the longest hit ending at i
+				for(Node n=node; n!=root; n=n.getChild(FAILLINK)){
+					if(n.phrase==null) continue;
+					int start=i-n.depth+1;
+					if(bestStart<0 || start<=bestStart){
+						bestStart=start;
+						bestLen=n.depth;
+						bestPayload=n.payload;
+					}
+					break;
+				}
+				// a later hit can only start inside the current node's prefix
+				if(bestStart<0 || bestStart>=i-node.depth+1){
+					i++;
+					continue;
+				}
+			}
+			handler.match(bestStart, bestLen, bestPayload);
+			i=bestStart+bestLen;
+			node=root;
+			bestStart=-1;
+		}
+	}
+
+	public int getTokenId(String token){
+		Integer id=tokenIds.get(token);
+		return id==null ? -1 : id;
+	}
+
+	public List<String> getKeyTokens(){
+		return Collections.unmodifiableList(tokenList);
+	}
+
+	public void find(int[] ids, int length, boolean longest, MatchHandler handler){
+		// the same string instances as the trie keys, so their hash codes
+		// are cached and equals() is an identity check
+		String[] tokens=new String[length];
+		for(int i=0; i<length; i++)
+			if(ids[i]>=0) tokens[i]=tokenList.get(ids[i]);
+		find(tokens, length, longest, handler);
+	}
+
+	public String getLabel(int payload){
+		return getEntries().getLabel(payload);
+	}
+
+	public DictEntries getEntries(){
+		DictEntries e=entries;
+		if(e==null){
+			String[] labels=new String[terminals.size()];
+			for(int i=0; i<labels.length; i++) labels[i]=terminals.get(i).label;
+			entries=e=DictEntries.of(labels);
+		}
+		return e;
+	}
+
+	/**
+	 * Builds the trie from all entries at once. Entries are split into
+	 * shards by first token, so the shards' subtries hang off disjoint root
+	 * children and can be built without locking; entries of a key keep their
+	 * file order because a key always falls into one shard.
+	 */
+	void putAll(final ArrayList<String> keys, final ArrayList<String> data, ForkJoinPool pool){
+		final int nshards=pool.getParallelism()*4;
+		final int[][] shards=new int[nshards][];
+		int[] sizes=new int[nshards];
+		int[] shardOf=new int[keys.size()];
+		for(int i=0; i<keys.size(); i++){
+			shardOf[i]=(firstToken(keys.get(i)).hashCode()&0x7fffffff)%nshards;
+			sizes[shardOf[i]]++;
+		}
+		for(int k=0; k<nshards; k++) shards[k]=new int[sizes[k]];
+		int[] fill=new int[nshards];
+		for(int i=0; i<keys.size(); i++) shards[shardOf[i]][fill[shardOf[i]]++]=i;
+		shardOf=null;
+
+		final Node[] shardRoots=new Node[nshards];
+		final ArrayList<ArrayList<Node>> shardTerminals=new ArrayList<ArrayList<Node>>();
+		for(int k=0; k<nshards; k++){
+			shardRoots[k]=new Node(root);
+			shardTerminals.add(new ArrayList<Node>());
+		}
+		// one String instance per token across shards, see find(int[])
+		final ConcurrentHashMap<String, String> canonical=new ConcurrentHashMap<String, String>();
+		pool.invoke(new RecursiveAction(){
+			protected void compute(){
+				ArrayList<RecursiveAction> tasks=new ArrayList<RecursiveAction>();
+				for(int k=0; k<nshards; k++){
+					final int shard=k;
+					tasks.add(new RecursiveAction(){
+						protected void compute(){
+							for(int i : shards[shard])
+								putShard(keys.get(i), data.get(i), shardRoots[shard], shardTerminals.get(shard), canonical);
+						}
+					});
+				}
+				invokeAll(tasks);
+			}
+		});
+
+		for(int k=0; k<nshards; k++){
+			for(String key : shardRoots[k].children.keySet()){
+				if(key==FAILLINK) continue;
+				root.addChild(key, shardRoots[k].getChild(key));
+			}
+			for(Node node : shardTerminals.get(k)){
+				node.payload=terminals.size();
+				terminals.add(node);
+			}
+		}
+		for(String token : canonical.keySet()){
+			tokenIds.put(token, tokenList.size());
+			tokenList.add(token);
+		}
+		entries=null;
+	}
+
+	static String firstToken(String key){
+		for(int i=0; i<key.length(); i++)
+			if(Character.isWhitespace(key.charAt(i))) return key.substring(0, i);
+		return key;
+	}
+
+	void putShard(String phr, String data, Node node, ArrayList<Node> shardTerminals, ConcurrentHashMap<String, String> canonical){
+		String[] tokens=phr.split(DELIMITER);
+		for(int i=0; i<tokens.length; i++){
+			Node child=node.getChild(tokens[i]);
+			if(child==null){
+				String token=canonical.putIfAbsent(tokens[i], tokens[i]);
+				child=new Node(root);
+				child.depth=i+1;
+				node.addChild(token==null ? tokens[i] : token, child);
 			}
+			node=child;
+		}
+		if(node.phrase==null){
+			node.phrase=phr;
+			node.label=data;
+			shardTerminals.add(node);
+		}
+		else node.label+=SLDELIM+data;
+	}
+
+	/**
+	 * Same as faillinking(), one BFS level at a time: the fail links of a
+	 * level only depend on those of the levels above it, so the nodes of a
+	 * level are split among the pool's threads.
+	 */
+	void faillinking(ForkJoinPool pool){
+		ArrayList<Node> level=new ArrayList<Node>();
+		for(String key : root.children.keySet())
+			if(key!=FAILLINK) level.add(root.getChild(key));
+		while(!level.isEmpty()){
+			final ArrayList<Node> nodes=level;
+			ArrayList<Node> next=new ArrayList<Node>();
+			for(Node node : nodes)
+				for(String key : node.children.keySet())
+					if(key!=FAILLINK) next.add(node.getChild(key));
+			pool.invoke(new LinkLevel(nodes, 0, nodes.size()));
+			level=next;
 		}
-		else{
-			Node n=node.getChild(FAILLINK);
-			while(n!=root){
-				if(n.phrase!=null){
-					String[] tks=n.phrase.split(DELIMITER);
-					int len=tks.length;
-					String tag=create_tag(len, n.label);
-					Vector<String> currentTags;
-					if(tags.get(i-len)==null) currentTags=new Vector<String>();
-					else currentTags=tags.get(i-len);
-					currentTags.add(tag);
-					tags.set(i-len, currentTags);
+	}
+
+	class LinkLevel extends RecursiveAction{
+
+		private static final long serialVersionUID = 1L;
+		static final int CHUNK=1024;
+		final ArrayList<Node> nodes;
+		final int from, to;
+
+		LinkLevel(ArrayList<Node> nodes, int from, int to){
+			this.nodes=nodes;
+			this.from=from;
+			this.to=to;
+		}
+
+		protected void compute(){
+			if(to-from>CHUNK){
+				int mid=(from+to)>>>1;
+				invokeAll(new LinkLevel(nodes, from, mid), new LinkLevel(nodes, mid, to));
+				return;
+			}
+			for(int i=from; i<to; i++){
+				Node node=nodes.get(i);
+				for(String key : node.children.keySet()){
+					if(key==FAILLINK) continue;
+					Node fail=node.getChild(FAILLINK);
+					while(fail!=root && fail.getChild(key)==null) fail=fail.getChild(FAILLINK);
+					if(fail.getChild(key)!=null) node.getChild(key).children.put(FAILLINK, fail.getChild(key));
 				}
-				n=n.getChild(FAILLINK);
 			}
 		}
-		find(tokens, i+1, child, tags);
-		return;
 	}
 
 	void faillinking(){
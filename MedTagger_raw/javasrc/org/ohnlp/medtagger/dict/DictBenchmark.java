@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares the dictionary backends on heap size and lookup throughput.
+ *
+ * usage: DictBenchmark lookup_dict [sentence_file] [rounds]
+ *
+ * sentence_file holds one normalized, whitespace tokenized sentence per line.
+ * Without it, sentences are generated from the dictionary keys mixed with
+ * tokens that are not in the dictionary.
+ */
+public class DictBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: DictBenchmark lookup_dict [sentence_file] [rounds]");
+			System.exit(1);
+		}
+		String dictfile = args[0];
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		ArrayList<String[]> sentences = args.length > 1 && !args[1].equals("-")
+				? readSentences(args[1]) : generateSentences(dictfile, 20000);
+		long ntokens = 0;
+		for (String[] s : sentences) ntokens += s.length;
+		System.out.println("sentences: " + sentences.size() + ", tokens: " + ntokens);
+
+		report("hashmap", new Builder() {
+			public LookupDict build(String f) { return new AhoCorasickDict(f); }
+		}, dictfile, sentences, ntokens, rounds);
+		final int threads = Runtime.getRuntime().availableProcessors();
+		report("hashmap-" + threads, new Builder() {
+			public LookupDict build(String f) { return new AhoCorasickDict(f, threads); }
+		}, dictfile, sentences, ntokens, rounds);
+		report("doublearray", new Builder() {
+			public LookupDict build(String f) throws IOException { return new DoubleArrayDict(f); }
+		}, dictfile, sentences, ntokens, rounds);
+		// compile the image up front so that only the mapping is timed
+		DictImage.load(dictfile, DictImage.defaultImage(dictfile));
+		report("image", new Builder() {
+			public LookupDict build(String f) throws IOException {
+				return DictImage.load(f, DictImage.defaultImage(f));
+			}
+		}, dictfile, sentences, ntokens, rounds);
+	}
+
+	interface Builder {
+		LookupDict build(String dictfile) throws IOException;
+	}
+
+	static void report(String name, Builder builder, String dictfile,
+			ArrayList<String[]> sentences, long ntokens, int rounds)
+			throws IOException {
+		long before = usedHeap();
+		long start = System.nanoTime();
+		LookupDict dict = builder.build(dictfile);
+		long buildTime = System.nanoTime() - start;
+		long heap = usedHeap() - before;
+
+		// warm up once, then time
+		long hits = run(dict, sentences, false);
+		start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) run(dict, sentences, false);
+		long elapsed = System.nanoTime() - start;
+
+		long longestHits = run(dict, sentences, true);
+		start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) run(dict, sentences, true);
+		long longestElapsed = System.nanoTime() - start;
+
+		// tokens mapped to ids up front, as LvgLookup does with canonicalId
+		ArrayList<int[]> ids = new ArrayList<int[]>(sentences.size());
+		for (String[] tokens : sentences) {
+			int[] s = new int[tokens.length];
+			for (int i = 0; i < s.length; i++) s[i] = dict.getTokenId(tokens[i]);
+			ids.add(s);
+		}
+		long idHits = runIds(dict, ids);
+		start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) runIds(dict, ids);
+		long idElapsed = System.nanoTime() - start;
+
+		System.out.println(String.format(
+				"%-12s build %8.1f ms  heap %10.1f MB  %12.0f tokens/sec  hits %d",
+				name, buildTime / 1e6, heap / (1024.0 * 1024.0),
+				ntokens * rounds / (elapsed / 1e9), hits));
+		System.out.println(String.format(
+				"%-12s longest match                %12.0f tokens/sec  hits %d",
+				name, ntokens * rounds / (longestElapsed / 1e9), longestHits));
+		System.out.println(String.format(
+				"%-12s longest match on token ids   %12.0f tokens/sec  hits %d",
+				name, ntokens * rounds / (idElapsed / 1e9), idHits));
+		dict = null;
+	}
+
+	static long run(LookupDict dict, ArrayList<String[]> sentences,
+			boolean longest) {
+		final long[] hits = new long[1];
+		MatchHandler counter = new MatchHandler() {
+			public void match(int start, int length, int payload) {
+				hits[0]++;
+			}
+		};
+		for (String[] tokens : sentences)
+			dict.find(tokens, tokens.length, longest, counter);
+		return hits[0];
+	}
+
+	static long runIds(LookupDict dict, ArrayList<int[]> sentences) {
+		final long[] hits = new long[1];
+		MatchHandler counter = new MatchHandler() {
+			public void match(int start, int length, int payload) {
+				hits[0]++;
+			}
+		};
+		for (int[] ids : sentences)
+			dict.find(ids, ids.length, true, counter);
+		return hits[0];
+	}
+
+	static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	static ArrayList<String[]> readSentences(String file) throws IOException {
+		ArrayList<String[]> sentences = new ArrayList<String[]>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file)));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.length() > 0) sentences.add(line.split(AhoCorasickDict.DELIMITER));
+		}
+		reader.close();
+		return sentences;
+	}
+
+	static ArrayList<String[]> generateSentences(String dictfile, int n)
+			throws IOException {
+		ArrayList<String[]> keys = new ArrayList<String[]>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(dictfile)));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			int index = line.indexOf(AhoCorasickDict.DICTDATADELIM);
+			if (index > 0) keys.add(line.substring(0, index).split(AhoCorasickDict.DELIMITER));
+		}
+		reader.close();
+
+		String[] filler = { "the", "patient", "was", "seen", "today", "with",
+				"no", "history", "of", "and", "for", "left", "right", "x1" };
+		Random random = new Random(42);
+		ArrayList<String[]> sentences = new ArrayList<String[]>(n);
+		ArrayList<String> tokens = new ArrayList<String>();
+		for (int i = 0; i < n; i++) {
+			tokens.clear();
+			int len = 5 + random.nextInt(30);
+			while (tokens.size() < len) {
+				if (!keys.isEmpty() && random.nextInt(3) == 0) {
+					for (String t : keys.get(random.nextInt(keys.size())))
+						tokens.add(t);
+				} else {
+					tokens.add(filler[random.nextInt(filler.length)]);
+				}
+			}
+			sentences.add(tokens.toArray(new String[tokens.size()]));
+		}
+		return sentences;
+	}
+}
@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+
+import opennlp.tools.postag.POSModel;
+import opennlp.tools.postag.POSTaggerME;
+import opennlp.tools.sentdetect.SentenceDetectorME;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerME;
+import opennlp.tools.tokenize.TokenizerModel;
+import opennlp.tools.util.Span;
+
+import org.apache.log4j.Logger;
+import org.ohnlp.medtagger.ae.Open2OHTokenizer;
+import org.ohnlp.medtagger.lvg.LvgLookup;
+
+/**
+ * Builds a lookup dictionary from a source dictionary without a CPE.
+ *
+ * Produces the same lines as DictPrepareCPE (DictCollectionReader,
+ * DictPrepareTAE, DictConsumer): the text before the first | of a source
+ * line is sentence split, tokenized and POS tagged with the OpenNLP models,
+ * converted as by Open2OHTokenizer and normalized as by LvgLookup; the
+ * normalized tokens, tab separated, replace the text. Instead of one CAS per
+ * line, batches of lines are normalized on a thread pool with one set of
+ * OpenNLP tools per thread and written in input order. Duplicate output
+ * lines are dropped using a set of 64-bit hashes of the lines rather than
+ * the lines themselves. Gap tokens such as &lt;0-4&gt; are copied into the
+ * key unchanged, see GapDict.
+ *
+ * With -groups, only the lines of the given semantic groups are compiled,
+ * see EntryFilter.
+ *
+ * usage: DictCompiler [-threads n] [-resources dir] [-openclass file]
+ *        [-groups group,...] [-image image_file] source_dict lookup_dict
+ */
+public class DictCompiler {
+
+	static final int BATCH = 2000;
+
+	private static Logger iv_logger = Logger.getLogger(DictCompiler.class.getName());
+
+	final SentenceModel sentenceModel;
+	final TokenizerModel tokenizerModel;
+	final POSModel posModel;
+	final LvgLookup lvg;
+	// the lines to compile, all if null
+	EntryFilter filter;
+	final ThreadLocal<Normalizer> normalizers = new ThreadLocal<Normalizer>() {
+		protected Normalizer initialValue() {
+			return new Normalizer();
+		}
+	};
+
+	/**
+	 * @param resources
+	 *            the MedTagger resources directory, holding opennlpresources
+	 *            and medtaggerresources
+	 * @param openclass
+	 *            open class word list, relative to resources
+	 */
+	public DictCompiler(String resources, String openclass) throws IOException {
+		sentenceModel = new SentenceModel(open(resources, "opennlpresources/models-1.5/en-sent.bin"));
+		tokenizerModel = new TokenizerModel(open(resources, "opennlpresources/models-1.5/en-token.bin"));
+		posModel = new POSModel(open(resources, "opennlpresources/mayomodels/mayo-pos.zip"));
+		lvg = new LvgLookup(new File(resources, "medtaggerresources/lvg/LRAGR_2011AB").getPath(),
+				new File(resources, openclass).getPath());
+	}
+
+	public void setFilter(EntryFilter filter) {
+		this.filter = filter;
+	}
+
+	private static InputStream open(String dir, String file) throws IOException {
+		return new FileInputStream(new File(dir, file));
+	}
+
+	/**
+	 * The OpenNLP tools are not thread safe, so every thread gets its own.
+	 */
+	class Normalizer implements Open2OHTokenizer.TokenSink {
+
+		final SentenceDetectorME sentenceDetector = new SentenceDetectorME(sentenceModel);
+		final TokenizerME tokenizer = new TokenizerME(tokenizerModel);
+		// beam size and cache size as in opennlp.uima.postag.POSTagger
+		final POSTaggerME tagger = new POSTaggerME(posModel, 3, 0);
+		final StringBuilder sb = new StringBuilder();
+		String text;
+
+		/**
+		 * @return the normalized tokens of text separated by tabs, or an
+		 *         empty string if there are none
+		 */
+		String normalize(String text) {
+			this.text = text;
+			sb.setLength(0);
+			for (Span sent : sentenceDetector.sentPosDetect(text)) {
+				Span[] tokens = tokenizer.tokenizePos(sent.getCoveredText(text).toString());
+				String[] words = new String[tokens.length];
+				for (int i = 0; i < tokens.length; i++)
+					words[i] = tokens[i].getCoveredText(sent.getCoveredText(text)).toString();
+				String[] tags = tagger.tag(words);
+				for (int i = 0; i < tokens.length; i++)
+					Open2OHTokenizer.convert(text, sent.getStart() + tokens[i].getStart(),
+							sent.getStart() + tokens[i].getEnd(), tags[i], this);
+			}
+			return sb.toString().trim();
+		}
+
+		public void token(int kind, int begin, int end, String pos) {
+			String token = text.substring(begin, end);
+			if (kind == Open2OHTokenizer.WORD) {
+				token = lvg.getCanonicalForm(token);
+				if (token == null) return;
+			}
+			else if (kind == Open2OHTokenizer.PUNCT) {
+				if (!token.equals(">") && !token.equals("<") && !token.equals("="))
+					return;
+			}
+			else if (kind != Open2OHTokenizer.NUM)
+				return;
+			sb.append(token).append('\t');
+		}
+
+		/**
+		 * Normalizes the text between the gap tokens of a key, see GapDict;
+		 * the gap tokens are kept as they are.
+		 *
+		 * @return the normalized key, or an empty string if it would start
+		 *         or end with a gap
+		 */
+		String normalizeKey(String text) {
+			Matcher m = GapDict.GAP.matcher(text);
+			if (!m.find()) return normalize(text);
+			StringBuilder key = new StringBuilder(normalize(text.substring(0, m.start())));
+			if (key.length() == 0) return "";
+			boolean more = true;
+			while (more) {
+				key.append('\t').append(m.group());
+				int last = m.end();
+				more = m.find();
+				// an empty part between two gaps is fine, the gaps add up
+				String part = normalize(text.substring(last, more ? m.start() : text.length()));
+				if (part.length() > 0) key.append('\t').append(part);
+				else if (!more) return "";
+			}
+			return key.toString();
+		}
+
+		/**
+		 * @return the lookup dictionary line of a source line, or null
+		 */
+		String compile(String line) {
+			int index = line.indexOf(AhoCorasickDict.DICTDATADELIM);
+			if (index < 0 || !EntryFilter.accept(filter, line.substring(index + 1))) return null;
+			String key = normalizeKey(line.substring(0, index));
+			if (key.length() == 0) return null;
+			return key + AhoCorasickDict.DICTDATADELIM + line.substring(index + 1);
+		}
+	}
+
+	/**
+	 * Compiles source into target with the given number of threads.
+	 */
+	public void compile(String source, String target, int threads) throws IOException {
+		long start = System.currentTimeMillis();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<String[]>> pending = new ArrayDeque<Future<String[]>>();
+		LongSet processed = new LongSet();
+		long read = 0, written = 0;
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(source), "UTF-8"));
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(target), "UTF-8"), 1 << 16);
+		try {
+			ArrayList<String> batch = new ArrayList<String>(BATCH);
+			String line;
+			while (true) {
+				line = reader.readLine();
+				if (line != null) {
+					read++;
+					batch.add(line);
+					if (batch.size() < BATCH) continue;
+				}
+				if (!batch.isEmpty()) {
+					pending.add(pool.submit(new Batch(batch)));
+					batch = new ArrayList<String>(BATCH);
+				}
+				// keep a bounded number of batches in flight, written in order
+				while (!pending.isEmpty() && (line == null || pending.size() > threads * 4)) {
+					for (String out : pending.remove().get()) {
+						if (out == null || !processed.add(hash64(out))) continue;
+						writer.write(out);
+						writer.write('\n');
+						written++;
+					}
+				}
+				if (line == null) break;
+				if (read % 100000 == 0) iv_logger.info(read + " lines");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+			reader.close();
+			writer.close();
+		}
+		iv_logger.info("compiled " + read + " lines of " + source + " into "
+				+ written + " lines of " + target + " in "
+				+ (System.currentTimeMillis() - start) + " ms with " + threads
+				+ " threads");
+	}
+
+	class Batch implements Callable<String[]> {
+
+		final ArrayList<String> lines;
+
+		Batch(ArrayList<String> lines) {
+			this.lines = lines;
+		}
+
+		public String[] call() {
+			Normalizer normalizer = normalizers.get();
+			String[] out = new String[lines.size()];
+			for (int i = 0; i < out.length; i++)
+				out[i] = normalizer.compile(lines.get(i));
+			return out;
+		}
+	}
+
+	/**
+	 * FNV-1a over the chars with a final avalanche; with 64 bits, a
+	 * collision among tens of millions of lines is very unlikely.
+	 */
+	static long hash64(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Open addressing set of longs, 0 marks an empty slot.
+	 */
+	static class LongSet {
+
+		long[] table = new long[1 << 16];
+		int size;
+
+		boolean add(long v) {
+			if (v == 0) v = 1;
+			if (size * 2 >= table.length) rehash();
+			int mask = table.length - 1;
+			int slot = (int) (v ^ (v >>> 32)) & mask;
+			while (table[slot] != 0) {
+				if (table[slot] == v) return false;
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = v;
+			size++;
+			return true;
+		}
+
+		private void rehash() {
+			long[] old = table;
+			table = new long[old.length * 2];
+			int mask = table.length - 1;
+			for (long v : old) {
+				if (v == 0) continue;
+				int slot = (int) (v ^ (v >>> 32)) & mask;
+				while (table[slot] != 0) slot = (slot + 1) & mask;
+				table[slot] = v;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String resources = "resources";
+		String openclass = "medtaggerresources/lvg/openclasswords4dictprepare.txt";
+		String image = null;
+		EntryFilter filter = null;
+		ArrayList<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-resources") && i + 1 < args.length) resources = args[++i];
+			else if (args[i].equals("-openclass") && i + 1 < args.length) openclass = args[++i];
+			else if (args[i].equals("-image") && i + 1 < args.length) image = args[++i];
+			else if (args[i].equals("-groups") && i + 1 < args.length) filter = EntryFilter.of(args[++i].split(","));
+			else files.add(args[i]);
+		}
+		if (files.size() != 2) {
+			System.err.println("usage: DictCompiler [-threads n] [-resources dir] "
+					+ "[-openclass file] [-groups group,...] [-image image_file] source_dict lookup_dict");
+			System.exit(1);
+		}
+		DictCompiler compiler = new DictCompiler(resources, openclass);
+		compiler.setFilter(filter);
+		compiler.compile(files.get(0), files.get(1), threads);
+		// recorded in the image, so it matches a lookup with the same groups
+		if (image != null)
+			DictImage.compile(new File[] { new File(files.get(1)) }, new File(image), filter);
+	}
+}
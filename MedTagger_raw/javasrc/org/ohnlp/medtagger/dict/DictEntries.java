@@ -0,0 +1,388 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Dictionary entry data, parsed once when the dictionary is loaded.
+ *
+ * The data of a dictionary line is term|norm|semGroup[|extra]. Entries
+ * sharing a key form one hit payload; payload p covers entries
+ * first(p)..end(p)-1. Each entry is a record of four int references into
+ * interned string pools, so every distinct term, norm, semantic group and
+ * extra string is stored once. Strings handed out by the getters are
+ * materialized at most once per pool index.
+ *
+ * A dictionary merged from several files records the file, or source, of
+ * every entry. Loaders mark the data of source i > 0 with tag(); untagged
+ * data is source 0.
+ */
+public class DictEntries {
+
+	public static final int TERM = 0;
+	public static final int NORM = 1;
+	public static final int SEMGROUP = 2;
+	public static final int EXTRA = 3;
+	public static final int FIELDS = 4;
+
+	static final char SOURCE_MARK = '\u001F';
+
+	final IntBuffer firstEntry;
+	final IntBuffer records;
+	// source of each entry, null if all entries are source 0
+	final IntBuffer sources;
+	final StringPool[] pools;
+	private final String[][] cache;
+
+	// for Concat, which overrides every accessor
+	private DictEntries() {
+		firstEntry = null;
+		records = null;
+		sources = null;
+		pools = null;
+		cache = null;
+	}
+
+	DictEntries(IntBuffer firstEntry, IntBuffer records, IntBuffer sources,
+			StringPool[] pools) {
+		this.firstEntry = firstEntry;
+		this.records = records;
+		this.sources = sources;
+		this.pools = pools;
+		cache = new String[FIELDS][];
+		for (int f = 0; f < FIELDS; f++)
+			cache[f] = new String[pools[f].size()];
+	}
+
+	/**
+	 * Parses labels as joined by the dictionary loaders: entries separated by
+	 * AhoCorasickDict.SLDELIM, fields by AhoCorasickDict.DICTDATADELIM.
+	 * Payload i is labels[i].
+	 */
+	public static DictEntries of(String[] labels) {
+		Builder builder = new Builder();
+		for (String label : labels)
+			builder.add(label);
+		return builder.build();
+	}
+
+	/**
+	 * @return the data of a dictionary line marked as coming from the given
+	 *         source, for DictEntries.of() and the dictionary loaders
+	 */
+	public static String tag(int source, String data) {
+		if (source == 0) return data;
+		return SOURCE_MARK + Integer.toString(source) + SOURCE_MARK + data;
+	}
+
+	/**
+	 * @return data without the mark added by tag()
+	 */
+	static String untag(String data) {
+		if (data.length() == 0 || data.charAt(0) != SOURCE_MARK) return data;
+		return data.substring(data.indexOf(SOURCE_MARK, 1) + 1);
+	}
+
+	/**
+	 * @return entries of a followed by those of b; payloads of b are shifted
+	 *         by a.size() and entries of b by a.entryCount()
+	 */
+	public static DictEntries concat(DictEntries a, DictEntries b) {
+		return new Concat(a, b);
+	}
+
+	/**
+	 * @return the number of payloads
+	 */
+	public int size() {
+		return firstEntry.capacity() - 1;
+	}
+
+	/**
+	 * @return the number of entries of all payloads
+	 */
+	public int entryCount() {
+		return size() == 0 ? 0 : end(size() - 1);
+	}
+
+	public int first(int payload) {
+		return firstEntry.get(payload);
+	}
+
+	public int end(int payload) {
+		return firstEntry.get(payload + 1);
+	}
+
+	/**
+	 * @return the pool index of a field of an entry, or -1 if the entry has
+	 *         no such field
+	 */
+	public int getId(int entry, int field) {
+		return records.get(entry * FIELDS + field);
+	}
+
+	/**
+	 * @return the source of an entry, 0 for unmerged dictionaries
+	 */
+	public int getSource(int entry) {
+		return sources == null ? 0 : sources.get(entry);
+	}
+
+	public String getTerm(int entry) {
+		return get(entry, TERM);
+	}
+
+	public String getNorm(int entry) {
+		return get(entry, NORM);
+	}
+
+	public String getSemGroup(int entry) {
+		return get(entry, SEMGROUP);
+	}
+
+	public String getExtra(int entry) {
+		return get(entry, EXTRA);
+	}
+
+	String get(int entry, int field) {
+		int id = getId(entry, field);
+		if (id < 0) return null;
+		// racing threads may both materialize the string; either copy is fine
+		String s = cache[field][id];
+		if (s == null) cache[field][id] = s = pools[field].get(id);
+		return s;
+	}
+
+	public StringPool getPool(int field) {
+		return pools[field];
+	}
+
+	/**
+	 * @return the payload in its original text form
+	 */
+	public String getLabel(int payload) {
+		StringBuilder sb = new StringBuilder();
+		for (int e = first(payload); e < end(payload); e++) {
+			if (e > first(payload)) sb.append(AhoCorasickDict.SLDELIM);
+			appendEntry(sb, e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the entry in its original text form, term|norm|semGroup[|extra]
+	 */
+	public String getEntryLabel(int entry) {
+		StringBuilder sb = new StringBuilder();
+		appendEntry(sb, entry);
+		return sb.toString();
+	}
+
+	private void appendEntry(StringBuilder sb, int entry) {
+		for (int f = 0; f < FIELDS; f++) {
+			String s = get(entry, f);
+			if (s == null) break;
+			if (f > 0) sb.append(AhoCorasickDict.DICTDATADELIM);
+			sb.append(s);
+		}
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeInt(firstEntry.capacity());
+		out.writeInt(records.capacity());
+		for (int i = 0; i < firstEntry.capacity(); i++) out.writeInt(firstEntry.get(i));
+		for (int i = 0; i < records.capacity(); i++) out.writeInt(records.get(i));
+		out.writeInt(sources == null ? 0 : sources.capacity());
+		for (int i = 0; sources != null && i < sources.capacity(); i++) out.writeInt(sources.get(i));
+		for (int f = 0; f < FIELDS; f++) pools[f].write(out);
+	}
+
+	static DictEntries read(ByteBuffer buf) {
+		int nfirst = buf.getInt();
+		int nrecords = buf.getInt();
+		IntBuffer firstEntry = StringPool.ints(buf, nfirst);
+		IntBuffer records = StringPool.ints(buf, nrecords);
+		int nsources = buf.getInt();
+		IntBuffer sources = nsources == 0 ? null : StringPool.ints(buf, nsources);
+		StringPool[] pools = new StringPool[FIELDS];
+		for (int f = 0; f < FIELDS; f++) pools[f] = StringPool.read(buf);
+		return new DictEntries(firstEntry, records, sources, pools);
+	}
+
+	/**
+	 * Two DictEntries seen as one, without copying either. Pool ids of b
+	 * are shifted by the pool sizes of a; the pools themselves are not
+	 * merged, so getPool() and write() are not supported.
+	 */
+	static class Concat extends DictEntries {
+
+		final DictEntries a;
+		final DictEntries b;
+		final int payloads;
+		final int entries;
+
+		Concat(DictEntries a, DictEntries b) {
+			this.a = a;
+			this.b = b;
+			payloads = a.size();
+			entries = a.entryCount();
+		}
+
+		public int size() {
+			return payloads + b.size();
+		}
+
+		public int first(int payload) {
+			return payload < payloads ? a.first(payload) : b.first(payload - payloads) + entries;
+		}
+
+		public int end(int payload) {
+			return payload < payloads ? a.end(payload) : b.end(payload - payloads) + entries;
+		}
+
+		public int getId(int entry, int field) {
+			if (entry < entries) return a.getId(entry, field);
+			int id = b.getId(entry - entries, field);
+			return id < 0 ? id : id + poolSize(a, field);
+		}
+
+		private static int poolSize(DictEntries d, int field) {
+			if (d instanceof Concat)
+				return poolSize(((Concat) d).a, field) + poolSize(((Concat) d).b, field);
+			return d.pools[field].size();
+		}
+
+		public int getSource(int entry) {
+			return entry < entries ? a.getSource(entry) : b.getSource(entry - entries);
+		}
+
+		String get(int entry, int field) {
+			return entry < entries ? a.get(entry, field) : b.get(entry - entries, field);
+		}
+
+		public StringPool getPool(int field) {
+			throw new UnsupportedOperationException("concatenated entries have no single pool");
+		}
+
+		void write(DataOutput out) throws IOException {
+			throw new UnsupportedOperationException("concatenated entries cannot be written");
+		}
+	}
+
+	/**
+	 * Collects payloads in order and interns their fields.
+	 */
+	public static class Builder {
+
+		private int[] firstEntry = new int[1024];
+		private int[] records = new int[1024 * FIELDS];
+		// allocated with the first entry of a source other than 0
+		private int[] sources;
+		private int npayloads;
+		private int nentries;
+		private ArrayList<HashMap<String, Integer>> ids = new ArrayList<HashMap<String, Integer>>();
+		private ArrayList<ArrayList<String>> strings = new ArrayList<ArrayList<String>>();
+
+		public Builder() {
+			for (int f = 0; f < FIELDS; f++) {
+				ids.add(new HashMap<String, Integer>());
+				strings.add(new ArrayList<String>());
+			}
+		}
+
+		/**
+		 * @return the payload of the label
+		 */
+		public int add(String label) {
+			if (npayloads + 2 > firstEntry.length)
+				firstEntry = Arrays.copyOf(firstEntry, firstEntry.length * 2);
+			firstEntry[npayloads] = nentries;
+			int from = 0;
+			while (true) {
+				int to = label.indexOf(AhoCorasickDict.SLDELIM, from);
+				addEntry(label, from, to < 0 ? label.length() : to);
+				if (to < 0) break;
+				from = to + AhoCorasickDict.SLDELIM.length();
+			}
+			firstEntry[npayloads + 1] = nentries;
+			return npayloads++;
+		}
+
+		private void addEntry(String label, int from, int to) {
+			if ((nentries + 1) * FIELDS > records.length)
+				records = Arrays.copyOf(records, records.length * 2);
+			if (sources != null && sources.length < records.length / FIELDS)
+				sources = Arrays.copyOf(sources, records.length / FIELDS);
+			if (from < to && label.charAt(from) == SOURCE_MARK) {
+				int mark = label.indexOf(SOURCE_MARK, from + 1);
+				if (sources == null) sources = new int[records.length / FIELDS];
+				sources[nentries] = Integer.parseInt(label.substring(from + 1, mark));
+				from = mark + 1;
+			}
+			int r = nentries * FIELDS;
+			for (int f = 0; f < FIELDS; f++) {
+				if (from > to) {
+					records[r + f] = -1;
+					continue;
+				}
+				int bar = f == EXTRA ? -1 : label.indexOf(AhoCorasickDict.DICTDATADELIM, from);
+				int fieldEnd = bar < 0 || bar > to ? to : bar;
+				records[r + f] = intern(f, label.substring(from, fieldEnd));
+				from = fieldEnd + AhoCorasickDict.DICTDATADELIM.length();
+			}
+			nentries++;
+		}
+
+		private int intern(int field, String s) {
+			HashMap<String, Integer> map = ids.get(field);
+			Integer id = map.get(s);
+			if (id == null) {
+				id = map.size();
+				map.put(s, id);
+				strings.get(field).add(s);
+			}
+			return id;
+		}
+
+		public DictEntries build() {
+			StringPool[] pools = new StringPool[FIELDS];
+			for (int f = 0; f < FIELDS; f++) {
+				ArrayList<String> list = strings.get(f);
+				pools[f] = StringPool.of(list.toArray(new String[list.size()]), true);
+			}
+			if (npayloads == 0) firstEntry[0] = 0;
+			return new DictEntries(IntBuffer.wrap(Arrays.copyOf(firstEntry, npayloads + 1)),
+					IntBuffer.wrap(Arrays.copyOf(records, nentries * FIELDS)),
+					sources == null ? null : IntBuffer.wrap(Arrays.copyOf(sources, nentries)),
+					pools);
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Binary image of a compiled DoubleArrayDict.
+ *
+ * The image is written once (offline with main(), or on first use by load())
+ * and afterwards mapped read-only with FileChannel.map, so the automaton
+ * lives off-heap, opening it costs a checksum pass instead of a rebuild, and
+ * JVMs on the same host share the pages through the OS cache.
+ *
+ * Layout (big endian): a fixed header with magic, format version, length
+ * and modification time of the source dictionary, a hash of the semantic
+ * groups it was filtered by (see EntryFilter) and a CRC32 of the body,
+ * then the body: cell count, the six int arrays of the automaton, the
+ * token StringPool, the DictEntries records, sources and pools, and the gap
+ * keys (see GapDict) with their entry data, so that an image needs no pass
+ * over its dictionary. An image of several merged dictionaries records
+ * their total length and a hash of their modification times.
+ *
+ * usage: DictImage lookup_dict [image_file]
+ */
+public class DictImage {
+
+	static final int MAGIC = 0x4D544441; // "MTDA"
+	static final int VERSION = 5;
+	static final int HEADER_SIZE = 40;
+	static final int FILTER_OFFSET = 24;
+	static final int CHECKSUM_OFFSET = 32;
+
+	private static Logger iv_logger = Logger.getLogger(DictImage.class.getName());
+
+	/**
+	 * @return the default image location for a dictionary
+	 */
+	public static String defaultImage(String dictfile) {
+		return dictfile + ".img";
+	}
+
+	/**
+	 * Maps the image of dictfile, compiling it first if it is missing, was
+	 * built from a different version of dictfile, or fails its checksum.
+	 */
+	public static DoubleArrayDict load(String dictfile, String imagefile)
+			throws IOException {
+		return load(new String[] { dictfile }, imagefile);
+	}
+
+	/**
+	 * Maps the image of the merged dictfiles, see DoubleArrayDict(String[]).
+	 */
+	public static DoubleArrayDict load(String[] dictfiles, String imagefile)
+			throws IOException {
+		return load(dictfiles, imagefile, null);
+	}
+
+	/**
+	 * Maps the image of the entries of dictfiles that filter keeps; an image
+	 * built with a different filter is rebuilt.
+	 */
+	public static DoubleArrayDict load(String[] dictfiles, String imagefile,
+			EntryFilter filter) throws IOException {
+		File[] sources = new File[dictfiles.length];
+		for (int i = 0; i < sources.length; i++) sources[i] = new File(dictfiles[i]);
+		File image = new File(imagefile);
+		if (image.exists()) {
+			DoubleArrayDict dict = map(image, sources, filter);
+			if (dict != null) return dict;
+		}
+		compile(sources, image, filter);
+		DoubleArrayDict dict = map(image, sources, filter);
+		if (dict == null)
+			throw new IOException("cannot read back dictionary image " + image);
+		return dict;
+	}
+
+	/**
+	 * Builds the trie from the dictionary and writes its image. The image is
+	 * written to a temporary file of its own first and then moved over the
+	 * old image atomically, so readers never see a partial or missing image
+	 * and concurrent compiles do not write to the same file.
+	 */
+	public static void compile(File source, File image) throws IOException {
+		compile(new File[] { source }, image);
+	}
+
+	public static void compile(File[] sources, File image) throws IOException {
+		compile(sources, image, null);
+	}
+
+	public static void compile(File[] sources, File image, EntryFilter filter)
+			throws IOException {
+		long start = System.currentTimeMillis();
+		String[] dictfiles = new String[sources.length];
+		for (int i = 0; i < sources.length; i++) dictfiles[i] = sources[i].getPath();
+		DoubleArrayDict dict = new DoubleArrayDict(DoubleArrayDict.build(dictfiles, filter));
+		dict.gapKeys = GapDict.readKeys(dictfiles, filter);
+		File tmp = File.createTempFile(image.getName() + ".", ".tmp",
+				image.getAbsoluteFile().getParentFile());
+		try {
+			write(dict, sources, filter, tmp);
+			Files.move(tmp.toPath(), image.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			tmp.delete();
+		}
+		iv_logger.info("compiled " + AhoCorasickDict.join(dictfiles) + " into " + image + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * @return the total length of the sources
+	 */
+	static long length(File[] sources) {
+		long length = 0;
+		for (File source : sources) length += source.length();
+		return length;
+	}
+
+	/**
+	 * @return the modification time of a single source, a hash of those of
+	 *         several
+	 */
+	static long lastModified(File[] sources) {
+		long modified = sources[0].lastModified();
+		for (int i = 1; i < sources.length; i++)
+			modified = modified * 31 + sources[i].lastModified();
+		return modified;
+	}
+
+	static void write(DoubleArrayDict dict, File[] sources, EntryFilter filter,
+			File image) throws IOException {
+		FileOutputStream fos = new FileOutputStream(image);
+		CRC32 crc = new CRC32();
+		try {
+			DataOutputStream header = new DataOutputStream(fos);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeLong(length(sources));
+			header.writeLong(lastModified(sources));
+			header.writeLong(EntryFilter.hash(filter));
+			header.writeLong(0);
+			header.flush();
+
+			DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+					new BufferedOutputStream(fos, 1 << 16), crc));
+			out.writeInt(dict.size);
+			writeInts(out, dict.base, dict.size);
+			writeInts(out, dict.check, dict.size);
+			writeInts(out, dict.fail, dict.size);
+			writeInts(out, dict.output, dict.size);
+			writeInts(out, dict.depth, dict.size);
+			writeInts(out, dict.labelIndex, dict.size);
+			dict.tokens.write(out);
+			dict.entries.write(out);
+			writeGapKeys(out, dict.gapKeys);
+			out.flush();
+		} finally {
+			fos.close();
+		}
+		RandomAccessFile raf = new RandomAccessFile(image, "rw");
+		try {
+			raf.seek(CHECKSUM_OFFSET);
+			raf.writeLong(crc.getValue());
+		} finally {
+			raf.close();
+		}
+	}
+
+	// the keys, the index of the first entry of each key plus the end, and
+	// the entries
+	private static void writeGapKeys(DataOutputStream out,
+			LinkedHashMap<String, ArrayList<String>> keys) throws IOException {
+		ArrayList<String> data = new ArrayList<String>();
+		out.writeInt(keys.size());
+		for (ArrayList<String> list : keys.values()) {
+			out.writeInt(data.size());
+			data.addAll(list);
+		}
+		out.writeInt(data.size());
+		StringPool.of(keys.keySet().toArray(new String[keys.size()]), false).write(out);
+		StringPool.of(data.toArray(new String[data.size()]), false).write(out);
+	}
+
+	private static LinkedHashMap<String, ArrayList<String>> readGapKeys(ByteBuffer body) {
+		int n = body.getInt();
+		IntBuffer first = StringPool.ints(body, n + 1);
+		StringPool keys = StringPool.read(body);
+		StringPool data = StringPool.read(body);
+		LinkedHashMap<String, ArrayList<String>> gapKeys = new LinkedHashMap<String, ArrayList<String>>();
+		for (int i = 0; i < n; i++) {
+			ArrayList<String> list = new ArrayList<String>();
+			for (int j = first.get(i); j < first.get(i + 1); j++) list.add(data.get(j));
+			gapKeys.put(keys.get(i), list);
+		}
+		return gapKeys;
+	}
+
+	private static void writeInts(DataOutputStream out, IntBuffer buf, int n)
+			throws IOException {
+		for (int i = 0; i < n; i++) out.writeInt(buf.get(i));
+	}
+
+	/**
+	 * @return the mapped dictionary, or null if the image is not a valid
+	 *         image of the current sources
+	 */
+	static DoubleArrayDict map(File image, File[] sources, EntryFilter filter)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(image, "r");
+		MappedByteBuffer buf;
+		try {
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					raf.length());
+		} finally {
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+		if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+			iv_logger.warn(image + " is not a dictionary image");
+			return null;
+		}
+		if (buf.getInt(4) != VERSION) {
+			iv_logger.info(image + " has image version " + buf.getInt(4)
+					+ ", expected " + VERSION);
+			return null;
+		}
+		boolean exist = true;
+		for (File source : sources) exist &= source.exists();
+		if (exist
+				&& (buf.getLong(8) != length(sources) || buf.getLong(16) != lastModified(sources))) {
+			iv_logger.info(image + " is out of date with "
+					+ (sources.length == 1 ? sources[0] : sources.length + " dictionaries"));
+			return null;
+		}
+		if (buf.getLong(FILTER_OFFSET) != EntryFilter.hash(filter)) {
+			iv_logger.info(image + " was built for other semantic groups");
+			return null;
+		}
+		ByteBuffer body = buf.duplicate();
+		body.position(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		crc.update(body.slice());
+		if (crc.getValue() != buf.getLong(CHECKSUM_OFFSET)) {
+			iv_logger.warn(image + " failed its checksum");
+			return null;
+		}
+
+		int size = body.getInt();
+		IntBuffer base = StringPool.ints(body, size);
+		IntBuffer check = StringPool.ints(body, size);
+		IntBuffer fail = StringPool.ints(body, size);
+		IntBuffer output = StringPool.ints(body, size);
+		IntBuffer depth = StringPool.ints(body, size);
+		IntBuffer labelIndex = StringPool.ints(body, size);
+		StringPool tokens = StringPool.read(body);
+		DictEntries entries = DictEntries.read(body);
+		LinkedHashMap<String, ArrayList<String>> gapKeys = readGapKeys(body);
+		iv_logger.info("mapped dictionary image " + image + ", " + size
+				+ " cells, " + tokens.size() + " tokens, " + gapKeys.size() + " gap keys");
+		DoubleArrayDict dict = new DoubleArrayDict(size, base, check, fail, output, depth,
+				labelIndex, tokens, entries);
+		dict.gapKeys = gapKeys;
+		return dict;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: DictImage lookup_dict [image_file]");
+			System.exit(1);
+		}
+		String image = args.length > 1 ? args[1] : defaultImage(args[0]);
+		compile(new File(args[0]), new File(image));
+	}
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Builds a smaller lookup dictionary from the hit statistics of a sample
+ * corpus, see HitProfile. A line of the lookup dictionary is kept if
+ *
+ * <ul>
+ * <li>its entry was hit at least min times, or</li>
+ * <li>with -prefix n, the first n tokens of its key (all of them for
+ * shorter keys, those before the first gap for gap keys) were reached at
+ * least min times, so the note type at least comes close to it, or</li>
+ * <li>the allow-list has its key, tokens separated by spaces, or its norm,
+ * for example a CUI.</li>
+ * </ul>
+ *
+ * Entries are matched by their data, so an entry seen under one key keeps
+ * the lines of the same data under other keys as well.
+ *
+ * usage: DictPruner -stats stats_file [-min n] [-prefix n] [-allow file]
+ *        lookup_dict pruned_dict
+ */
+public class DictPruner {
+
+	private static Logger iv_logger = Logger.getLogger(DictPruner.class.getName());
+
+	final HashSet<String> entries = new HashSet<String>();
+	final HashSet<String> prefixes = new HashSet<String>();
+	final HashSet<String> allowed = new HashSet<String>();
+	final int prefix;
+
+	public DictPruner(String statsFile, long min, int prefix, String allowFile)
+			throws IOException {
+		this.prefix = prefix;
+		for (String line : lines(statsFile)) {
+			String[] fields = line.split("\t", 3);
+			if (fields.length < 3 || Long.parseLong(fields[1]) < min) continue;
+			if (fields[0].equals("E")) entries.add(fields[2]);
+			else if (fields[0].equals("P")) prefixes.add(fields[2]);
+		}
+		if (allowFile != null)
+			for (String line : lines(allowFile))
+				allowed.add(join(line.trim().split("\\s+"), -1));
+	}
+
+	private static ArrayList<String> lines(String file) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null)
+				if (line.length() > 0 && !line.startsWith("#")) lines.add(line);
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	/**
+	 * @return the first n tokens, all if n < 0, up to the first gap, joined
+	 *         by spaces
+	 */
+	static String join(String[] tokens, int n) {
+		StringBuilder sb = new StringBuilder();
+		int count = 0;
+		for (String token : tokens) {
+			if (token.length() == 0) continue;
+			if (n >= 0 && (count == n || GapDict.isGap(token))) break;
+			if (count++ > 0) sb.append(' ');
+			sb.append(token);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return true if the lookup dictionary line is kept
+	 */
+	public boolean keep(String line) {
+		int index = line.indexOf(AhoCorasickDict.DICTDATADELIM);
+		if (index < 0) return false;
+		String data = line.substring(index + AhoCorasickDict.DICTDATADELIM.length());
+		if (entries.contains(data)) return true;
+		String[] tokens = line.substring(0, index).split(AhoCorasickDict.DELIMITER);
+		if (prefix > 0 && prefixes.contains(join(tokens, prefix))) return true;
+		if (allowed.isEmpty()) return false;
+		String[] fields = data.split("\\|");
+		return allowed.contains(join(tokens, -1))
+				|| (fields.length > DictEntries.NORM && allowed.contains(fields[DictEntries.NORM]));
+	}
+
+	public void prune(String source, String target) throws IOException {
+		long read = 0, written = 0;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(source), "UTF-8"));
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(target), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				read++;
+				if (!keep(line)) continue;
+				writer.write(line);
+				writer.write('\n');
+				written++;
+			}
+		} finally {
+			reader.close();
+			writer.close();
+		}
+		iv_logger.info("kept " + written + " of " + read + " lines of " + source
+				+ " in " + target);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String stats = null, allow = null;
+		long min = 1;
+		int prefix = 0;
+		ArrayList<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-stats") && i + 1 < args.length) stats = args[++i];
+			else if (args[i].equals("-min") && i + 1 < args.length) min = Long.parseLong(args[++i]);
+			else if (args[i].equals("-prefix") && i + 1 < args.length) prefix = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-allow") && i + 1 < args.length) allow = args[++i];
+			else files.add(args[i]);
+		}
+		if (stats == null || files.size() != 2) {
+			System.err.println("usage: DictPruner -stats stats_file [-min n] [-prefix n] "
+					+ "[-allow file] lookup_dict pruned_dict");
+			System.exit(1);
+		}
+		new DictPruner(stats, min, prefix, allow).prune(files.get(0), files.get(1));
+	}
+}
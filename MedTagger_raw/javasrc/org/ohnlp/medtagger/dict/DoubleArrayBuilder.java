@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Builds the arrays of a DoubleArrayDict from dictionary entries.
+ *
+ * Every dictionary token is mapped to an int id (most frequent tokens get
+ * the smallest ids). Trie cells are placed breadth first, then fail and
+ * output links are computed level by level.
+ */
+class DoubleArrayBuilder {
+
+	static final int ROOT = DoubleArrayDict.ROOT;
+	static final int FREE = -1;
+	static final int OCCUPIED = -2;
+
+	HashMap<String, Integer> tokenIds;
+	// token strings by id
+	String[] tokens;
+	int[] base;
+	int[] check;
+	int[] fail;
+	int[] output;
+	int[] depth;
+	int[] labelIndex;
+	String[] labels;
+	int size;
+
+	// free cells, only used while building
+	private int[] nextFree;
+	private int[] prevFree;
+	private int freeHead;
+	private int freeTail;
+	private byte[] trials;
+	private static final int UNLINKED = -2;
+	private static final int MAX_TRIALS = 16;
+
+	DoubleArrayBuilder(ArrayList<String[]> keys, ArrayList<String> data) {
+		build(keys, data);
+	}
+
+	/**
+	 * @return the state reached from state s on token id c, or -1
+	 */
+	int next(int s, int c) {
+		int t = base[s] + c;
+		if (t > 0 && t < size && check[t] == s) return t;
+		return -1;
+	}
+
+	void build(ArrayList<String[]> keys, ArrayList<String> data) {
+		assignTokenIds(keys);
+		final int[][] ids = new int[keys.size()][];
+		for (int i = 0; i < ids.length; i++) {
+			String[] key = keys.get(i);
+			ids[i] = new int[key.length];
+			for (int j = 0; j < key.length; j++)
+				ids[i][j] = tokenIds.get(key[j]);
+		}
+
+		// stable sort keeps the labels of duplicate keys in file order
+		Integer[] order = new Integer[ids.length];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return compareKeys(ids[a], ids[b]);
+			}
+		});
+
+		int capacity = Math.max(1024, ids.length * 2);
+		base = new int[capacity];
+		check = new int[capacity];
+		Arrays.fill(check, FREE);
+		nextFree = new int[capacity];
+		prevFree = new int[capacity];
+		trials = new byte[capacity];
+		prevFree[ROOT] = nextFree[ROOT] = UNLINKED;
+		freeHead = freeTail = -1;
+		linkFree(1, capacity);
+		int[] parent = new int[capacity];
+		int[] label = new int[capacity];
+		depth = new int[capacity];
+		labelIndex = new int[capacity];
+		Arrays.fill(labelIndex, -1);
+		ArrayList<String> labelList = new ArrayList<String>();
+
+		check[ROOT] = OCCUPIED;
+		size = 1;
+
+		// breadth first: each queue entry is a state and the range of sorted
+		// entries that share its prefix
+		int[] queue = new int[16 * 3];
+		int head = 0, tail = 0;
+		queue[tail++] = ROOT; queue[tail++] = 0; queue[tail++] = order.length;
+		int[] bfs = new int[capacity];
+		int nbfs = 0;
+		int[] children = new int[16];
+		while (head < tail) {
+			int s = queue[head++], lo = queue[head++], hi = queue[head++];
+			bfs[nbfs++] = s;
+			int d = depth[s];
+
+			// entries ending here become the label of s
+			if (lo < hi && ids[order[lo]].length == d) {
+				StringBuilder sb = new StringBuilder(data.get(order[lo]));
+				for (lo++; lo < hi && ids[order[lo]].length == d; lo++)
+					sb.append(AhoCorasickDict.SLDELIM).append(data.get(order[lo]));
+				if (s != ROOT) {
+					labelIndex[s] = labelList.size();
+					labelList.add(sb.toString());
+				}
+			}
+			if (lo >= hi) continue;
+
+			int nchildren = 0;
+			int prev = -1;
+			for (int i = lo; i < hi; i++) {
+				int c = ids[order[i]][d];
+				if (c != prev) {
+					if (nchildren == children.length)
+						children = Arrays.copyOf(children, nchildren * 2);
+					children[nchildren++] = c;
+					prev = c;
+				}
+			}
+			int b = findBase(children, nchildren);
+			base[s] = b;
+			if (b + children[nchildren - 1] >= parent.length) {
+				int n = Math.max(parent.length * 2, b + children[nchildren - 1] + 1);
+				parent = Arrays.copyOf(parent, n);
+				label = Arrays.copyOf(label, n);
+				depth = Arrays.copyOf(depth, n);
+				labelIndex = grow(labelIndex, n, -1);
+				bfs = Arrays.copyOf(bfs, n);
+			}
+			int start = lo;
+			for (int k = 0; k < nchildren; k++) {
+				int c = children[k];
+				int t = b + c;
+				occupy(t, s);
+				parent[t] = s;
+				label[t] = c;
+				depth[t] = d + 1;
+				if (t >= size) size = t + 1;
+				int end = start;
+				while (end < hi && ids[order[end]][d] == c) end++;
+				if (tail + 3 > queue.length) {
+					if (head > 0) {
+						System.arraycopy(queue, head, queue, 0, tail - head);
+						tail -= head;
+						head = 0;
+					}
+					if (tail + 3 > queue.length)
+						queue = Arrays.copyOf(queue, queue.length * 2);
+				}
+				queue[tail++] = t; queue[tail++] = start; queue[tail++] = end;
+				start = end;
+			}
+		}
+
+		base = Arrays.copyOf(base, size);
+		check = Arrays.copyOf(check, size);
+		depth = Arrays.copyOf(depth, size);
+		labelIndex = Arrays.copyOf(labelIndex, size);
+		labels = labelList.toArray(new String[labelList.size()]);
+		nextFree = prevFree = null;
+		trials = null;
+
+		// fail and output links, level by level
+		fail = new int[size];
+		output = new int[size];
+		for (int k = 1; k < nbfs; k++) {
+			int t = bfs[k];
+			int p = parent[t];
+			int f = ROOT;
+			if (p != ROOT) {
+				f = fail[p];
+				int n;
+				while ((n = next(f, label[t])) < 0 && f != ROOT)
+					f = fail[f];
+				f = n < 0 ? ROOT : n;
+			}
+			fail[t] = f;
+			output[t] = labelIndex[f] >= 0 ? f : output[f];
+		}
+	}
+
+	private void assignTokenIds(ArrayList<String[]> keys) {
+		final HashMap<String, int[]> freq = new HashMap<String, int[]>();
+		for (String[] key : keys) {
+			for (String token : key) {
+				int[] f = freq.get(token);
+				if (f == null) freq.put(token, f = new int[1]);
+				f[0]++;
+			}
+		}
+		String[] tokens = freq.keySet().toArray(new String[freq.size()]);
+		Arrays.sort(tokens, new Comparator<String>() {
+			public int compare(String a, String b) {
+				int d = freq.get(b)[0] - freq.get(a)[0];
+				return d != 0 ? d : a.compareTo(b);
+			}
+		});
+		tokenIds = new HashMap<String, Integer>(tokens.length * 2);
+		for (int i = 0; i < tokens.length; i++)
+			tokenIds.put(tokens[i], i);
+		this.tokens = tokens;
+	}
+
+	/**
+	 * Finds a base so that every base+children[k] cell is free. The free
+	 * cells are kept in a linked list in position order, so the first child
+	 * is simply tried on each free cell in turn. A cell that has failed too
+	 * many times is dropped from the list (it stays free and can still be
+	 * taken by a later child), which keeps wide nodes from rescanning the
+	 * same holes. Bases may be negative; next() guards the lower bound.
+	 */
+	private int findBase(int[] children, int nchildren) {
+		int first = children[0];
+		int last = children[nchildren - 1];
+		int pos = freeHead;
+		while (true) {
+			if (pos < 0) {
+				pos = check.length;
+				ensureCapacity(pos + 1);
+			}
+			int b = pos - first;
+			ensureCapacity(b + last + 1);
+			boolean fits = true;
+			for (int k = 1; k < nchildren; k++) {
+				if (check[b + children[k]] != FREE) {
+					fits = false;
+					break;
+				}
+			}
+			if (fits) return b;
+			int n = nextFree[pos];
+			if (++trials[pos] >= MAX_TRIALS) unlink(pos);
+			pos = n;
+		}
+	}
+
+	private void occupy(int t, int s) {
+		check[t] = s;
+		if (prevFree[t] != UNLINKED) unlink(t);
+	}
+
+	private void unlink(int t) {
+		int p = prevFree[t], n = nextFree[t];
+		if (p >= 0) nextFree[p] = n;
+		else freeHead = n;
+		if (n >= 0) prevFree[n] = p;
+		else freeTail = p;
+		prevFree[t] = nextFree[t] = UNLINKED;
+	}
+
+	private void ensureCapacity(int n) {
+		if (n <= check.length) return;
+		int old = check.length;
+		int m = Math.max(n, old * 2);
+		base = Arrays.copyOf(base, m);
+		check = grow(check, m, FREE);
+		nextFree = Arrays.copyOf(nextFree, m);
+		prevFree = Arrays.copyOf(prevFree, m);
+		trials = Arrays.copyOf(trials, m);
+		linkFree(old, m);
+	}
+
+	private void linkFree(int from, int to) {
+		for (int i = from; i < to; i++) {
+			prevFree[i] = freeTail;
+			nextFree[i] = -1;
+			if (freeTail >= 0) nextFree[freeTail] = i;
+			else freeHead = i;
+			freeTail = i;
+		}
+	}
+
+	private static int[] grow(int[] a, int n, int fill) {
+		int old = a.length;
+		a = Arrays.copyOf(a, n);
+		Arrays.fill(a, old, n, fill);
+		return a;
+	}
+
+	static int compareKeys(int[] a, int[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++)
+			if (a[i] != b[i]) return a[i] < b[i] ? -1 : 1;
+		return a.length - b.length;
+	}
+}
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Aho-Corasick automaton over token ids stored in a double-array trie.
+ *
+ * A transition from state s on token id c goes to t=base[s]+c and is valid
+ * iff check[t]==s. Fail links, output (dictionary suffix) links, depths and
+ * payload indexes are kept in parallel int buffers, the token vocabulary in
+ * a StringPool and the entry data in DictEntries, so the whole automaton is
+ * a handful of primitive buffers instead of one HashMap per node as in
+ * AhoCorasickDict.
+ *
+ * The buffers wrap heap arrays when the trie is built from a dictionary
+ * file, or point into a memory-mapped file when it is loaded from a
+ * DictImage. Lookups only use absolute gets, so an instance can be shared
+ * between threads.
+ *
+ * The dictionary file format is the same as for AhoCorasickDict.
+ */
+public class DoubleArrayDict implements LookupDict {
+
+	// LOG4J logger based on class name
+	private Logger iv_logger = Logger.getLogger(getClass().getName());
+
+	static final int ROOT = 0;
+
+	final int size;
+	final IntBuffer base;
+	final IntBuffer check;
+	final IntBuffer fail;
+	final IntBuffer output;
+	final IntBuffer depth;
+	final IntBuffer labelIndex;
+	final StringPool tokens;
+	final DictEntries entries;
+	// the gap keys stored in the image it was mapped from, see GapDict;
+	// null if it was not mapped from an image
+	LinkedHashMap<String, ArrayList<String>> gapKeys;
+
+	public DoubleArrayDict(String dictfile) throws IOException {
+		this(new String[] { dictfile });
+	}
+
+	/**
+	 * Merges several dictionaries into one trie; entries of dictfiles[i]
+	 * are source i, see DictEntries.getSource().
+	 */
+	public DoubleArrayDict(String[] dictfiles) throws IOException {
+		this(dictfiles, null);
+	}
+
+	/**
+	 * @param filter
+	 *            the entries to load, all if null
+	 */
+	public DoubleArrayDict(String[] dictfiles, EntryFilter filter) throws IOException {
+		this(build(dictfiles, filter));
+		iv_logger.info("built double-array aho-corasick trie. " + size
+				+ " cells, " + tokens.size() + " tokens, " + entries.size()
+				+ " keys");
+	}
+
+	public DoubleArrayDict(ArrayList<String[]> keys, ArrayList<String> data) {
+		this(new DoubleArrayBuilder(keys, data));
+	}
+
+	DoubleArrayDict(DoubleArrayBuilder b) {
+		this(b.size, IntBuffer.wrap(b.base), IntBuffer.wrap(b.check),
+				IntBuffer.wrap(b.fail), IntBuffer.wrap(b.output),
+				IntBuffer.wrap(b.depth), IntBuffer.wrap(b.labelIndex),
+				StringPool.of(b.tokens, true), DictEntries.of(b.labels));
+	}
+
+	DoubleArrayDict(int size, IntBuffer base, IntBuffer check, IntBuffer fail,
+			IntBuffer output, IntBuffer depth, IntBuffer labelIndex,
+			StringPool tokens, DictEntries entries) {
+		this.size = size;
+		this.base = base;
+		this.check = check;
+		this.fail = fail;
+		this.output = output;
+		this.depth = depth;
+		this.labelIndex = labelIndex;
+		this.tokens = tokens;
+		this.entries = entries;
+	}
+
+	static DoubleArrayBuilder build(String[] dictfiles, EntryFilter filter) throws IOException {
+		Logger.getLogger(DoubleArrayDict.class.getName()).info(
+				"building double-array aho-corasick trie from: "
+						+ AhoCorasickDict.join(dictfiles)
+						+ (filter == null ? "" : ", semantic groups " + filter));
+		ArrayList<String[]> keys = new ArrayList<String[]>();
+		ArrayList<String> data = new ArrayList<String>();
+		for (int source = 0; source < dictfiles.length; source++) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(dictfiles[source])));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int index = line.indexOf(AhoCorasickDict.DICTDATADELIM);
+					// gap keys are matched by GapDict
+					if (index >= 0 && !GapDict.isGapKey(line.substring(0, index))
+							&& EntryFilter.accept(filter, line.substring(index
+									+ AhoCorasickDict.DICTDATADELIM.length()))) {
+						keys.add(line.substring(0, index).split(AhoCorasickDict.DELIMITER));
+						data.add(DictEntries.tag(source, line.substring(index
+								+ AhoCorasickDict.DICTDATADELIM.length())));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return new DoubleArrayBuilder(keys, data);
+	}
+
+	/**
+	 * @return the id of the token, or -1 if the token does not occur in any
+	 *         dictionary entry
+	 */
+	public int getTokenId(String token) {
+		return tokens.indexOf(token);
+	}
+
+	public List<String> getKeyTokens() {
+		return new AbstractList<String>() {
+			public String get(int i) {
+				return tokens.get(i);
+			}
+
+			public int size() {
+				return tokens.size();
+			}
+		};
+	}
+
+	/**
+	 * @return the state reached from state s on token id c, or -1
+	 */
+	int next(int s, int c) {
+		if (c < 0) return -1;
+		int t = base.get(s) + c;
+		if (t > 0 && t < size && check.get(t) == s) return t;
+		return -1;
+	}
+
+	/**
+	 * @return the state reached from s on token id c, following fail links
+	 */
+	int step(int s, int c) {
+		int t;
+		while ((t = next(s, c)) < 0 && s != ROOT)
+			s = fail.get(s);
+		return t < 0 ? ROOT : t;
+	}
+
+	public void find(String[] tokens, int length, boolean longest,
+			MatchHandler handler) {
+		find(tokens, null, length, longest, handler);
+	}
+
+	public void find(int[] ids, int length, boolean longest,
+			MatchHandler handler) {
+		find(null, ids, length, longest, handler);
+	}
+
+	private void find(String[] tokens, int[] ids, int length,
+			boolean longest, MatchHandler handler) {
+		int s = ROOT;
+		int bestStart = -1, bestLen = 0, bestPayload = -1;
+		int i = 0;
+		while (true) {
+			if (i == length) {
+				if (bestStart < 0) break;
+			} else {
+				s = step(s, ids != null ? ids[i] : getTokenId(tokens[i]));
+				int o = labelIndex.get(s) >= 0 ? s : output.get(s);
+				if (!longest) {
+					for (; o > 0; o = output.get(o))
+						handler.match(i - depth.get(o) + 1, depth.get(o),
+								labelIndex.get(o));
+					i++;
+					continue;
+				}
+				// the first output is the longest one ending at i
+				if (o > 0) {
+					int start = i - depth.get(o) + 1;
+					if (bestStart < 0 || start <= bestStart) {
+						bestStart = start;
+						bestLen = depth.get(o);
+						bestPayload = labelIndex.get(o);
+					}
+				}
+				// a later hit can only start inside the current state's prefix
+				if (bestStart < 0 || bestStart >= i - depth.get(s) + 1) {
+					i++;
+					continue;
+				}
+			}
+			handler.match(bestStart, bestLen, bestPayload);
+			i = bestStart + bestLen;
+			s = ROOT;
+			bestStart = -1;
+		}
+	}
+
+	public DictEntries getEntries() {
+		return entries;
+	}
+
+	public String getLabel(int payload) {
+		return entries.getLabel(payload);
+	}
+
+	/**
+	 * @return the number of cells in the double array
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	public StringPool getTokens() {
+		return tokens;
+	}
+}
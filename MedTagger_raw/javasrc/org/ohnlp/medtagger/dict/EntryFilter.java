@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Selects the dictionary lines to load by semantic group. A line
+ * key|term|norm|semGroup[|extra] is kept if its semantic group, or its extra
+ * field such as a source tag, is one of the wanted values; everything else
+ * is dropped before it reaches a trie, so a project that only emits a few
+ * groups neither stores nor matches the others.
+ */
+public class EntryFilter {
+
+	final HashSet<String> wanted;
+	final long hash;
+
+	EntryFilter(String[] values) {
+		wanted = new HashSet<String>();
+		for (String value : values)
+			if (value.trim().length() > 0) wanted.add(value.trim());
+		String[] sorted = wanted.toArray(new String[wanted.size()]);
+		Arrays.sort(sorted);
+		long h = 1;
+		for (String value : sorted)
+			h = h * 31 + DictCompiler.hash64(value);
+		hash = h;
+	}
+
+	/**
+	 * @return a filter keeping the given semantic groups and extra field
+	 *         values, or null, which keeps everything, if there are none
+	 */
+	public static EntryFilter of(String[] values) {
+		if (values == null) return null;
+		EntryFilter filter = new EntryFilter(values);
+		return filter.wanted.isEmpty() ? null : filter;
+	}
+
+	/**
+	 * @param data
+	 *            the part of a dictionary line after the key,
+	 *            term|norm|semGroup[|extra]
+	 */
+	public boolean accept(String data) {
+		int norm = data.indexOf(AhoCorasickDict.DICTDATADELIM);
+		int group = norm < 0 ? -1 : data.indexOf(AhoCorasickDict.DICTDATADELIM, norm + 1);
+		if (group < 0) return false;
+		int extra = data.indexOf(AhoCorasickDict.DICTDATADELIM, group + 1);
+		if (extra < 0) return wanted.contains(data.substring(group + 1));
+		return wanted.contains(data.substring(group + 1, extra))
+				|| wanted.contains(data.substring(extra + 1));
+	}
+
+	/**
+	 * @return true if filter keeps the data; a null filter keeps everything
+	 */
+	public static boolean accept(EntryFilter filter, String data) {
+		return filter == null || filter.accept(data);
+	}
+
+	/**
+	 * @return a hash of the wanted values, 0 for a null filter; recorded in
+	 *         dictionary images
+	 */
+	public static long hash(EntryFilter filter) {
+		return filter == null ? 0 : filter.hash;
+	}
+
+	public String toString() {
+		return wanted.toString();
+	}
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Finds the dictionary token closest to a misspelled word, by symmetric
+ * deletion: two words within edit distance d share a string obtained by
+ * deleting at most d characters from each. Every token is indexed under the
+ * hashes of its deletion variants; a query looks up the variants of the
+ * word and verifies each candidate with the real distance (optimal string
+ * alignment, so a transposition is one edit). Hash collisions therefore
+ * only cost a verification.
+ *
+ * The index is a sorted long array of (hash, token index) pairs, about
+ * (length + 1) pairs per token for one edit and length^2 / 2 for two. An
+ * index can extend a base index with a few more tokens, so a dictionary
+ * delta does not rebuild the index of the whole dictionary.
+ */
+public class FuzzyIndex {
+
+	private static Logger iv_logger = Logger.getLogger(FuzzyIndex.class.getName());
+
+	final String[] tokens;
+	// (variant hash << 32) | token index, sorted
+	final long[] postings;
+	final int maxEdits;
+	final int minLength;
+	// the index whose tokens this one adds to, null if none
+	final FuzzyIndex base;
+
+	/**
+	 * @param maxEdits
+	 *            largest edit distance of a correction, 1 or 2
+	 * @param minLength
+	 *            shortest word that is corrected; a word gets at most one
+	 *            edit per four characters
+	 */
+	public FuzzyIndex(List<String> tokens, int maxEdits, int minLength) {
+		this(null, tokens, maxEdits, minLength);
+	}
+
+	/**
+	 * @param tokens
+	 *            tokens that are not in base, searched together with those
+	 *            of base, with the same settings
+	 */
+	public FuzzyIndex(FuzzyIndex base, List<String> tokens) {
+		this(base, tokens, base.maxEdits, base.minLength);
+	}
+
+	private FuzzyIndex(FuzzyIndex base, List<String> tokens, int maxEdits,
+			int minLength) {
+		long start = System.currentTimeMillis();
+		this.base = base;
+		this.maxEdits = maxEdits;
+		this.minLength = minLength;
+		ArrayList<String> indexed = new ArrayList<String>();
+		for (String token : tokens)
+			if (token.length() >= minLength - maxEdits && isWord(token))
+				indexed.add(token);
+		this.tokens = indexed.toArray(new String[indexed.size()]);
+
+		long[] pairs = new long[this.tokens.length * 8];
+		int n = 0;
+		HashSet<String> variants = new HashSet<String>();
+		for (int i = 0; i < this.tokens.length; i++) {
+			variants.clear();
+			deletions(this.tokens[i], maxEdits, variants);
+			for (String variant : variants) {
+				if (n == pairs.length) pairs = Arrays.copyOf(pairs, n * 2);
+				pairs[n++] = ((long) variant.hashCode() << 32) | i;
+			}
+		}
+		Arrays.sort(pairs, 0, n);
+		postings = Arrays.copyOf(pairs, n);
+		iv_logger.info("fuzzy index of " + this.tokens.length
+				+ (base == null ? "" : " more") + " tokens, " + n
+				+ " deletion variants, built in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Only alphabetic tokens are corrected, numbers and codes are not.
+	 */
+	static boolean isWord(String s) {
+		for (int i = 0; i < s.length(); i++)
+			if (!Character.isLetter(s.charAt(i))) return false;
+		return true;
+	}
+
+	/**
+	 * Adds s and the strings made by deleting up to edits characters of it.
+	 */
+	static void deletions(String s, int edits, HashSet<String> out) {
+		if (!out.add(s) || edits == 0 || s.length() <= 1) return;
+		for (int i = 0; i < s.length(); i++)
+			deletions(s.substring(0, i) + s.substring(i + 1), edits - 1, out);
+	}
+
+	/**
+	 * @return the edits allowed for a word of this length
+	 */
+	int allowedEdits(int length) {
+		if (length < minLength) return 0;
+		return Math.min(maxEdits, Math.max(1, length / 4));
+	}
+
+	/**
+	 * @return the dictionary token nearest to word, if exactly one token is
+	 *         nearest and it is within the allowed edits; otherwise null
+	 */
+	public String correct(String word) {
+		int edits = allowedEdits(word.length());
+		if (edits == 0 || !isWord(word)) return null;
+		HashSet<String> variants = new HashSet<String>();
+		deletions(word, edits, variants);
+		String best = null;
+		int bestDistance = edits + 1;
+		boolean ambiguous = false;
+		for (String variant : variants) {
+			long key = (long) variant.hashCode() << 32;
+			for (FuzzyIndex index = this; index != null; index = index.base) {
+				long[] postings = index.postings;
+				int i = index.lowerBound(key);
+				for (; i < postings.length && (postings[i] & 0xFFFFFFFF00000000L) == key; i++) {
+					// tokens are not repeated, within an index or across
+					String token = index.tokens[(int) postings[i]];
+					if (token == best) continue;
+					int d = distance(word, token, bestDistance);
+					if (d < bestDistance) {
+						best = token;
+						bestDistance = d;
+						ambiguous = false;
+					}
+					else if (d == bestDistance && d <= edits)
+						ambiguous = true;
+				}
+			}
+		}
+		if (best == null || ambiguous || bestDistance == 0) return null;
+		return best;
+	}
+
+	private int lowerBound(long key) {
+		int lo = 0, hi = postings.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (postings[mid] < key) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the optimal string alignment distance of a and b, or any value
+	 *         above max once it is known to exceed max
+	 */
+	static int distance(String a, String b, int max) {
+		int la = a.length(), lb = b.length();
+		if (Math.abs(la - lb) > max) return max + 1;
+		int[] prev2 = new int[lb + 1], prev = new int[lb + 1], cur = new int[lb + 1];
+		for (int j = 0; j <= lb; j++) prev[j] = j;
+		for (int i = 1; i <= la; i++) {
+			cur[0] = i;
+			int rowMin = cur[0];
+			for (int j = 1; j <= lb; j++) {
+				int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				int d = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+				if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2)
+						&& a.charAt(i - 2) == b.charAt(j - 1))
+					d = Math.min(d, prev2[j - 2] + 1);
+				cur[j] = d;
+				rowMin = Math.min(rowMin, d);
+			}
+			if (rowMin > max) return max + 1;
+			int[] t = prev2;
+			prev2 = prev;
+			prev = cur;
+			cur = t;
+		}
+		return prev[lb];
+	}
+}
@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A dictionary plus entries whose keys allow a bounded number of arbitrary
+ * tokens between their parts. A gap token &lt;m-n&gt; in a key stands for m
+ * to n tokens, so the key
+ *
+ * <pre>
+ * total	&lt;0-4&gt;	hip	&lt;0-4&gt;	arthroplasty|...
+ * </pre>
+ *
+ * matches "total hip arthroplasty" as well as "total left hip revision
+ * arthroplasty".
+ *
+ * Gaps count the tokens the lookup sees, not the words of the text: words
+ * with a canonical form, numbers and &lt; &gt; =, whether or not they are in
+ * the dictionary. Words LvgLookup gives no canonical form, i.e. those of the
+ * openclass list such as "the", "of", "with" or "and", other punctuation,
+ * contractions and symbols are skipped like they are between the tokens of
+ * any other key, and count toward no gap. A gap key thus also matches "total
+ * replacement of the left hip arthroplasty", and matches more text than a
+ * rule like total (\S+\s+){0,4}hip with the same bounds would.
+ *
+ * The parts of the gap keys are the keys of a small AhoCorasickDict that
+ * scans the tokens next to the wrapped dictionary. Parts are reported in
+ * order of their end; a part that starts within the gap after a partial
+ * match of its entry extends it, and the last part completes a hit spanning
+ * the gaps. Partial matches are kept per part in end order and dropped once
+ * they are too far behind, so the scan stays linear. Of the matches of an
+ * entry ending at the same token, only the one with the leftmost start is
+ * reported.
+ *
+ * The dictionary loaders leave gap keys out of their tries, see isGapKey().
+ * Gap entries get the payloads after those of the wrapped dictionary, and
+ * tokens only found in gap keys the ids after its tokens.
+ */
+public class GapDict implements LookupDict {
+
+	static final Pattern GAP = Pattern.compile("<(\\d+)-(\\d+)>");
+
+	private static Logger iv_logger = Logger.getLogger(GapDict.class.getName());
+
+	final LookupDict main;
+	final int mainPayloads;
+	final int mainTokens;
+	final DictEntries entries;
+	// the distinct parts of all gap keys; payload i is part key i
+	final AhoCorasickDict parts;
+	// part key i occurs as the parts partsOf[partsFirst[i]..partsFirst[i+1])
+	final int[] partsFirst;
+	final int[] partsOf;
+	// per part: gap entry, and the gap before it; parts of an entry are
+	// numbered consecutively, so the part before p is p-1
+	final int[] entryOf;
+	final boolean[] first;
+	final boolean[] last;
+	final int[] gapMin;
+	final int[] gapMax;
+	// part automaton token id of each main token id, -1 if none
+	final int[] partIdOfMain;
+	// tokens only in gap keys, id mainTokens+i for index i
+	final ArrayList<String> extraTokens = new ArrayList<String>();
+	final HashMap<String, Integer> extraIds = new HashMap<String, Integer>();
+	final int[] partIdOfExtra;
+
+	/**
+	 * @param keys
+	 *            gap keys with their data, tagged with their source
+	 */
+	GapDict(LookupDict main, LinkedHashMap<String, ArrayList<String>> keys) {
+		this.main = main;
+		mainPayloads = main.getEntries().size();
+		mainTokens = main.getKeyTokens().size();
+		parts = new AhoCorasickDict();
+		HashMap<String, Integer> partKeys = new HashMap<String, Integer>();
+		ArrayList<ArrayList<Integer>> occurrences = new ArrayList<ArrayList<Integer>>();
+		ArrayList<Integer> entryList = new ArrayList<Integer>();
+		ArrayList<int[]> gaps = new ArrayList<int[]>();
+		ArrayList<String> labels = new ArrayList<String>();
+
+		for (String key : keys.keySet()) {
+			ArrayList<String> partList = new ArrayList<String>();
+			ArrayList<int[]> gapList = new ArrayList<int[]>();
+			if (!parse(key, partList, gapList)) {
+				iv_logger.warn("skipping gap key: " + key);
+				continue;
+			}
+			int entry = labels.size();
+			StringBuilder label = new StringBuilder();
+			for (String data : keys.get(key)) {
+				if (label.length() > 0) label.append(AhoCorasickDict.SLDELIM);
+				label.append(data);
+			}
+			labels.add(label.toString());
+			for (int j = 0; j < partList.size(); j++) {
+				Integer id = partKeys.get(partList.get(j));
+				if (id == null) {
+					id = partKeys.size();
+					partKeys.put(partList.get(j), id);
+					parts.put(partList.get(j), "");
+					occurrences.add(new ArrayList<Integer>());
+				}
+				occurrences.get(id).add(entryList.size());
+				entryList.add(entry);
+				gaps.add(gapList.get(j));
+			}
+		}
+		parts.faillinking();
+
+		partsFirst = new int[occurrences.size() + 1];
+		partsOf = new int[entryList.size()];
+		for (int i = 0, n = 0; i < occurrences.size(); i++) {
+			for (int p : occurrences.get(i)) partsOf[n++] = p;
+			partsFirst[i + 1] = n;
+		}
+		int nparts = entryList.size();
+		entryOf = new int[nparts];
+		first = new boolean[nparts];
+		last = new boolean[nparts];
+		gapMin = new int[nparts];
+		gapMax = new int[nparts];
+		for (int p = 0; p < nparts; p++) {
+			entryOf[p] = entryList.get(p);
+			first[p] = p == 0 || entryOf[p - 1] != entryOf[p];
+			last[p] = p == nparts - 1 || entryList.get(p + 1) != entryOf[p];
+			if (!first[p]) {
+				gapMin[p] = gaps.get(p)[0];
+				gapMax[p] = gaps.get(p)[1];
+			}
+		}
+
+		int maxMainId = -1;
+		for (String token : parts.tokenList)
+			maxMainId = Math.max(maxMainId, main.getTokenId(token));
+		partIdOfMain = new int[maxMainId + 1];
+		Arrays.fill(partIdOfMain, -1);
+		ArrayList<Integer> extra = new ArrayList<Integer>();
+		for (int i = 0; i < parts.tokenList.size(); i++) {
+			String token = parts.tokenList.get(i);
+			int id = main.getTokenId(token);
+			if (id >= 0) partIdOfMain[id] = i;
+			else {
+				extraIds.put(token, extraTokens.size());
+				extraTokens.add(token);
+				extra.add(i);
+			}
+		}
+		partIdOfExtra = new int[extra.size()];
+		for (int i = 0; i < partIdOfExtra.length; i++) partIdOfExtra[i] = extra.get(i);
+
+		entries = DictEntries.concat(main.getEntries(),
+				DictEntries.of(labels.toArray(new String[labels.size()])));
+	}
+
+	/**
+	 * Splits a gap key into its parts, tokens joined by tabs, and the gap
+	 * before each part, null for the first one. Consecutive gaps add up.
+	 *
+	 * @return false if the key starts or ends with a gap or has a gap whose
+	 *         minimum exceeds its maximum
+	 */
+	static boolean parse(String key, ArrayList<String> partList, ArrayList<int[]> gapList) {
+		StringBuilder part = new StringBuilder();
+		int[] gap = null;
+		for (String token : key.split(AhoCorasickDict.DELIMITER)) {
+			if (token.length() == 0) continue;
+			if (isGap(token)) {
+				if (partList.isEmpty() && part.length() == 0) return false;
+				Matcher m = GAP.matcher(token);
+				m.matches();
+				int min = Integer.parseInt(m.group(1));
+				int max = Integer.parseInt(m.group(2));
+				if (min > max) return false;
+				if (part.length() > 0) {
+					partList.add(part.toString());
+					gapList.add(gap);
+					part.setLength(0);
+					gap = new int[2];
+				}
+				gap[0] += min;
+				gap[1] += max;
+				continue;
+			}
+			if (part.length() > 0) part.append('\t');
+			part.append(token);
+		}
+		if (part.length() == 0) return false;
+		partList.add(part.toString());
+		gapList.add(gap);
+		return true;
+	}
+
+	/**
+	 * @return true if token is a gap token &lt;m-n&gt;
+	 */
+	public static boolean isGap(String token) {
+		int n = token.length();
+		return n >= 5 && token.charAt(0) == '<' && token.charAt(n - 1) == '>'
+				&& GAP.matcher(token).matches();
+	}
+
+	/**
+	 * @return true if the key of a dictionary line has a gap token
+	 */
+	public static boolean isGapKey(String key) {
+		if (key.indexOf('<') < 0) return false;
+		for (String token : key.split(AhoCorasickDict.DELIMITER))
+			if (isGap(token)) return true;
+		return false;
+	}
+
+	/**
+	 * Reads the gap keys of dictfiles, the dictionaries main was built from,
+	 * source i being dictfiles[i]. A main dictionary mapped from a DictImage
+	 * brings the gap keys of its image, and the files are not read.
+	 *
+	 * @return main itself if there are none
+	 */
+	public static LookupDict load(LookupDict main, String[] dictfiles) throws IOException {
+		return load(main, dictfiles, null);
+	}
+
+	/**
+	 * @param filter
+	 *            the entries to load, all if null
+	 */
+	public static LookupDict load(LookupDict main, String[] dictfiles, EntryFilter filter)
+			throws IOException {
+		LinkedHashMap<String, ArrayList<String>> keys = null;
+		if (main instanceof DoubleArrayDict)
+			keys = ((DoubleArrayDict) main).gapKeys;
+		if (keys == null)
+			keys = readKeys(dictfiles, filter);
+		if (keys.isEmpty()) return main;
+		GapDict dict = new GapDict(main, keys);
+		int lines = 0;
+		for (ArrayList<String> list : keys.values()) lines += list.size();
+		iv_logger.info("loaded " + lines + " gap entries, " + (dict.getEntries().size() - dict.mainPayloads)
+				+ " keys with " + dict.parts.terminals.size() + " distinct parts");
+		return dict;
+	}
+
+	/**
+	 * @return the gap keys of the dictfiles with their entry data, tagged
+	 *         with their source
+	 */
+	static LinkedHashMap<String, ArrayList<String>> readKeys(String[] dictfiles,
+			EntryFilter filter) throws IOException {
+		LinkedHashMap<String, ArrayList<String>> keys = new LinkedHashMap<String, ArrayList<String>>();
+		for (int source = 0; source < dictfiles.length; source++) {
+			// a dictionary image can be used without its dictionary
+			if (!new File(dictfiles[source]).exists()) continue;
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(dictfiles[source])));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int index = line.indexOf(AhoCorasickDict.DICTDATADELIM);
+					if (index < 0) continue;
+					String key = line.substring(0, index);
+					if (!isGapKey(key) || !EntryFilter.accept(filter, line.substring(index
+							+ AhoCorasickDict.DICTDATADELIM.length())))
+						continue;
+					ArrayList<String> list = keys.get(key);
+					if (list == null) keys.put(key, list = new ArrayList<String>());
+					list.add(DictEntries.tag(source, line.substring(index
+							+ AhoCorasickDict.DICTDATADELIM.length())));
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return keys;
+	}
+
+	public int getTokenId(String token) {
+		int id = main.getTokenId(token);
+		if (id >= 0) return id;
+		Integer extra = extraIds.get(token);
+		return extra == null ? -1 : mainTokens + extra;
+	}
+
+	private int partId(int id) {
+		if (id < 0) return -1;
+		if (id < mainTokens) return id < partIdOfMain.length ? partIdOfMain[id] : -1;
+		return id - mainTokens < partIdOfExtra.length ? partIdOfExtra[id - mainTokens] : -1;
+	}
+
+	public void find(String[] tokens, int length, boolean longest,
+			MatchHandler handler) {
+		boolean any = false;
+		for (int i = 0; i < length && !any; i++)
+			any = tokens[i] != null && parts.getTokenId(tokens[i]) >= 0;
+		if (!any) {
+			main.find(tokens, length, longest, handler);
+			return;
+		}
+		Hits hits = new Hits();
+		main.find(tokens, length, false, hits);
+		parts.find(tokens, length, false, hits.parts());
+		hits.report(longest, handler);
+	}
+
+	public void find(int[] ids, int length, boolean longest,
+			MatchHandler handler) {
+		int[] mainIds = ids;
+		boolean any = false;
+		for (int i = 0; i < length; i++) {
+			any = any || partId(ids[i]) >= 0;
+			// ids of tokens only in gap keys mean nothing to main
+			if (ids[i] >= mainTokens) {
+				if (mainIds == ids) mainIds = Arrays.copyOf(ids, length);
+				mainIds[i] = -1;
+			}
+		}
+		// most sentences have no part of a gap key
+		if (!any) {
+			main.find(mainIds, length, longest, handler);
+			return;
+		}
+		int[] partIds = new int[length];
+		for (int i = 0; i < length; i++) partIds[i] = partId(ids[i]);
+		Hits hits = new Hits();
+		main.find(mainIds, length, false, hits);
+		parts.find(partIds, length, false, hits.parts());
+		hits.report(longest, handler);
+	}
+
+	public List<String> getKeyTokens() {
+		final List<String> mainList = main.getKeyTokens();
+		return new AbstractList<String>() {
+			public String get(int i) {
+				return i < mainTokens ? mainList.get(i) : extraTokens.get(i - mainTokens);
+			}
+
+			public int size() {
+				return mainTokens + extraTokens.size();
+			}
+		};
+	}
+
+	public DictEntries getEntries() {
+		return entries;
+	}
+
+	public String getLabel(int payload) {
+		return entries.getLabel(payload);
+	}
+
+	public LookupDict getMain() {
+		return main;
+	}
+
+	/**
+	 * The hits of the wrapped dictionary plus the gap hits assembled from
+	 * the parts of one find() call.
+	 */
+	class Hits extends HitList {
+
+		// partial matches of the parts that are not the last of their entry
+		final HashMap<Integer, Partials> partials = new HashMap<Integer, Partials>();
+
+		MatchHandler parts() {
+			return new MatchHandler() {
+				public void match(int s, int l, int key) {
+					for (int k = partsFirst[key]; k < partsFirst[key + 1]; k++)
+						part(partsOf[k], s, s + l - 1);
+				}
+			};
+		}
+
+		void part(int p, int s, int end) {
+			int start = s;
+			if (!first[p]) {
+				start = leftmost(p - 1, s - 1 - gapMax[p], s - 1 - gapMin[p]);
+				if (start < 0) return;
+			}
+			if (last[p]) match(start, end - start + 1, mainPayloads + entryOf[p]);
+			else add(p, end, start);
+		}
+
+		/**
+		 * @return the leftmost start of the partial matches of p ending in
+		 *         [from, to], or -1
+		 */
+		int leftmost(int p, int from, int to) {
+			Partials list = partials.get(p);
+			if (list == null) return -1;
+			// from only grows over the calls for one p, see Partials
+			while (list.head < list.size && list.ends[list.head] < from) list.head++;
+			int start = -1;
+			for (int i = list.head; i < list.size && list.ends[i] <= to; i++)
+				if (start < 0 || list.starts[i] < start) start = list.starts[i];
+			return start;
+		}
+
+		void add(int p, int end, int start) {
+			Partials list = partials.get(p);
+			if (list == null) partials.put(p, list = new Partials());
+			list.add(end, start);
+		}
+	}
+
+	/**
+	 * The partial matches of one part in end order. Only the next part of
+	 * the entry looks at them, and its starts grow with its ends, so matches
+	 * that end before its earliest possible predecessor are dropped for good.
+	 */
+	static class Partials {
+
+		int head;
+		int size;
+		int[] ends = new int[4];
+		int[] starts = new int[4];
+
+		void add(int end, int start) {
+			if (size == ends.length) {
+				ends = Arrays.copyOf(ends, size * 2);
+				starts = Arrays.copyOf(starts, size * 2);
+			}
+			ends[size] = end;
+			starts[size] = start;
+			size++;
+		}
+	}
+}
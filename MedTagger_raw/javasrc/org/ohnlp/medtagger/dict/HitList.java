@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.util.Arrays;
+
+/**
+ * Hits collected from one or more find() calls, to be reported again in
+ * the order LookupDict.find() promises. Used to combine the hits of several
+ * automata, or to select leftmost-longest hits among a subset of the hits of
+ * one automaton.
+ */
+public class HitList implements MatchHandler {
+
+	int n;
+	int[] start = new int[16];
+	int[] length = new int[16];
+	int[] payload = new int[16];
+	long[] keys = new long[16];
+
+	public void clear() {
+		n = 0;
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public int getStart(int i) {
+		return start[i];
+	}
+
+	public int getLength(int i) {
+		return length[i];
+	}
+
+	public int getPayload(int i) {
+		return payload[i];
+	}
+
+	public void match(int s, int l, int p) {
+		if (n == start.length) {
+			start = Arrays.copyOf(start, n * 2);
+			length = Arrays.copyOf(length, n * 2);
+			payload = Arrays.copyOf(payload, n * 2);
+		}
+		start[n] = s;
+		length[n] = l;
+		payload[n] = p;
+		n++;
+	}
+
+	/**
+	 * Reports the hits to handler as find(..., longest, handler) would.
+	 */
+	public void report(boolean longest, MatchHandler handler) {
+		// sort keys, a position in the high half and the index of the hit in
+		// the low half, so that hits at one position keep their order
+		if (keys.length < n) keys = new long[start.length];
+		if (!longest) {
+			// by end position, as LookupDict.find() promises
+			for (int i = 0; i < n; i++) keys[i] = (long) (start[i] + length[i]) << 32 | i;
+			Arrays.sort(keys, 0, n);
+			for (int k = 0; k < n; k++) {
+				int i = (int) keys[k];
+				handler.match(start[i], length[i], payload[i]);
+			}
+			return;
+		}
+		// leftmost start first, the longest hit at a start first
+		for (int i = 0; i < n; i++) keys[i] = (long) start[i] << 32 | i;
+		Arrays.sort(keys, 0, n);
+		int next = 0;
+		for (int k = 0; k < n;) {
+			int s = start[(int) keys[k]];
+			int end = k;
+			int best = -1;
+			for (; end < n && start[(int) keys[end]] == s; end++) {
+				int i = (int) keys[end];
+				if (best < 0 || length[i] > length[best]) best = i;
+			}
+			if (s >= next) {
+				if (length[best] > 0) handler.match(s, length[best], payload[best]);
+				// empty hits do not move next, each of them is reported
+				else for (; k < end; k++) {
+					int i = (int) keys[k];
+					handler.match(s, length[i], payload[i]);
+				}
+				next = s + length[best];
+			}
+			k = end;
+		}
+	}
+}
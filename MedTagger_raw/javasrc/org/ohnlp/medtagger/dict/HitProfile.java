@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hit counts of a dictionary over a corpus, for DictPruner.
+ *
+ * Two counts are kept: how often each entry was part of a hit, and
+ * how often each trie node, that is each key prefix, was reached by walking
+ * the trie from a token of a sentence. Entries are counted by their data,
+ * term|norm|semGroup[|extra], so the counts do not depend on the backend or
+ * on token ids. Nodes are found in a sorted array of the keys of the
+ * dictionary files rather than in the automaton itself, so counting works
+ * the same for every LookupDict.
+ *
+ * Every annotator counts on its own and adds its counts to those of the
+ * other profiles of the same stats file with flush(), which rewrites the
+ * file. Stats file lines, counts only for entries and prefixes seen:
+ *
+ * <pre>
+ * # comment
+ * S	sentences	tokens
+ * E	count	term|norm|semGroup
+ * P	count	token token ...
+ * </pre>
+ */
+public class HitProfile {
+
+	private static Logger iv_logger = Logger.getLogger(HitProfile.class.getName());
+	// merged counts per stats file
+	private static final HashMap<String, HitProfile> totals = new HashMap<String, HitProfile>();
+
+	final String statsFile;
+	// the keys of the dictionary as token ids, sorted, without duplicates
+	final int[][] keys;
+	long sentences;
+	long tokens;
+	// entry hits of the entries counted so far, by entry index
+	DictEntries entries;
+	int[] entryHits;
+	// node visits by (depth << 32 | index of the first key with the prefix)
+	final HashMap<Long, int[]> nodeHits = new HashMap<Long, int[]>();
+	// counts already taken out of entryHits and nodeHits
+	final TreeMap<String, long[]> entryTotals = new TreeMap<String, long[]>();
+	final TreeMap<String, long[]> nodeTotals = new TreeMap<String, long[]>();
+
+	private HitProfile(String statsFile) {
+		this.statsFile = statsFile;
+		keys = new int[0][];
+	}
+
+	/**
+	 * @param dict
+	 *            the dictionary the token ids of sentence() come from
+	 * @param dictfiles
+	 *            the dictionaries dict was built from
+	 */
+	public HitProfile(String statsFile, LookupDict dict, String[] dictfiles) throws IOException {
+		this.statsFile = statsFile;
+		ArrayList<int[]> list = new ArrayList<int[]>();
+		for (String dictfile : dictfiles) {
+			if (!new File(dictfile).exists()) continue;
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(dictfile)));
+			try {
+				String line;
+				next: while ((line = reader.readLine()) != null) {
+					int index = line.indexOf(AhoCorasickDict.DICTDATADELIM);
+					if (index <= 0) continue;
+					String[] tokens = line.substring(0, index).split(AhoCorasickDict.DELIMITER);
+					int[] key = new int[tokens.length];
+					for (int i = 0; i < tokens.length; i++) {
+						// keys left out of dict, by a filter or as gap keys
+						if ((key[i] = dict.getTokenId(tokens[i])) < 0) continue next;
+					}
+					list.add(key);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		int[][] sorted = list.toArray(new int[list.size()][]);
+		Arrays.sort(sorted, new Comparator<int[]>() {
+			public int compare(int[] x, int[] y) {
+				return HitProfile.compare(x, y);
+			}
+		});
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++)
+			if (n == 0 || compare(sorted[n - 1], sorted[i]) != 0) sorted[n++] = sorted[i];
+		keys = Arrays.copyOf(sorted, n);
+		iv_logger.info("profiling dictionary hits into " + statsFile + ", " + n + " keys");
+	}
+
+	static int compare(int[] x, int[] y) {
+		for (int i = 0; i < x.length && i < y.length; i++)
+			if (x[i] != y[i]) return x[i] < y[i] ? -1 : 1;
+		return x.length - y.length;
+	}
+
+	/**
+	 * Counts the nodes reached from every token of a sentence.
+	 */
+	public void sentence(int[] ids, int length) {
+		sentences++;
+		tokens += length;
+		for (int i = 0; i < length; i++) {
+			int lo = 0, hi = keys.length;
+			for (int d = 0; i + d < length && ids[i + d] >= 0; d++) {
+				// keys in [lo, hi) share d tokens; the one of length d, if
+				// any, comes first
+				int t = ids[i + d];
+				int from = firstAtLeast(lo, hi, d, t);
+				int to = firstAtLeast(from, hi, d, t + 1);
+				if (from == to) break;
+				lo = from;
+				hi = to;
+				Long node = ((long) (d + 1) << 32) | lo;
+				int[] count = nodeHits.get(node);
+				if (count == null) nodeHits.put(node, count = new int[1]);
+				count[0]++;
+			}
+		}
+	}
+
+	/**
+	 * @return the first key in [lo, hi) whose token d is at least t
+	 */
+	private int firstAtLeast(int lo, int hi, int d, int t) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int[] key = keys[mid];
+			if (key.length <= d || key[d] < t) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Counts a hit of entry e of entries.
+	 */
+	public void entry(DictEntries entries, int e) {
+		if (entries != this.entries) {
+			// the dictionary was swapped, see OverlayDict
+			foldEntries();
+			this.entries = entries;
+			entryHits = new int[entries.entryCount()];
+		}
+		entryHits[e]++;
+	}
+
+	private void foldEntries() {
+		if (entries == null) return;
+		for (int e = 0; e < entryHits.length; e++)
+			if (entryHits[e] > 0) add(entryTotals, entries.getEntryLabel(e), entryHits[e]);
+		entries = null;
+		entryHits = null;
+	}
+
+	private void foldNodes(LookupDict dict) {
+		if (nodeHits.isEmpty()) return;
+		List<String> tokenList = dict.getKeyTokens();
+		for (Map.Entry<Long, int[]> node : nodeHits.entrySet()) {
+			int depth = (int) (node.getKey() >>> 32);
+			int[] key = keys[(int) (long) node.getKey()];
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < depth; i++) {
+				if (i > 0) sb.append(' ');
+				sb.append(tokenList.get(key[i]));
+			}
+			add(nodeTotals, sb.toString(), node.getValue()[0]);
+		}
+		nodeHits.clear();
+	}
+
+	private static void add(TreeMap<String, long[]> totals, String key, long count) {
+		long[] total = totals.get(key);
+		if (total == null) totals.put(key, total = new long[1]);
+		total[0] += count;
+	}
+
+	/**
+	 * Adds the counts to those of the other profiles of the stats file,
+	 * rewrites it and starts counting from zero.
+	 *
+	 * @param dict
+	 *            the dictionary the token ids came from, for the tokens of
+	 *            the node prefixes
+	 */
+	public void flush(LookupDict dict) throws IOException {
+		foldEntries();
+		foldNodes(dict);
+		if (sentences == 0 && entryTotals.isEmpty() && nodeTotals.isEmpty())
+			return;
+		synchronized (totals) {
+			HitProfile total = totals.get(statsFile);
+			if (total == null) totals.put(statsFile, total = new HitProfile(statsFile));
+			total.sentences += sentences;
+			total.tokens += tokens;
+			for (Map.Entry<String, long[]> e : entryTotals.entrySet())
+				add(total.entryTotals, e.getKey(), e.getValue()[0]);
+			for (Map.Entry<String, long[]> e : nodeTotals.entrySet())
+				add(total.nodeTotals, e.getKey(), e.getValue()[0]);
+			total.write();
+		}
+		sentences = tokens = 0;
+		entryTotals.clear();
+		nodeTotals.clear();
+	}
+
+	private void write() throws IOException {
+		File file = new File(statsFile);
+		File tmp = File.createTempFile(file.getName() + ".", ".tmp",
+				file.getAbsoluteFile().getParentFile());
+		try {
+			write(tmp);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			tmp.delete();
+		}
+		iv_logger.info("wrote hit statistics of " + sentences + " sentences, "
+				+ entryTotals.size() + " entries and " + nodeTotals.size()
+				+ " prefixes to " + statsFile);
+	}
+
+	private void write(File tmp) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(tmp), "UTF-8"));
+		try {
+			writer.write("# dictionary hit statistics, see HitProfile\n");
+			writer.write("S\t" + sentences + "\t" + tokens + "\n");
+			for (Map.Entry<String, long[]> e : entryTotals.entrySet())
+				writer.write("E\t" + e.getValue()[0] + "\t" + e.getKey() + "\n");
+			for (Map.Entry<String, long[]> e : nodeTotals.entrySet())
+				writer.write("P\t" + e.getValue()[0] + "\t" + e.getKey() + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+}
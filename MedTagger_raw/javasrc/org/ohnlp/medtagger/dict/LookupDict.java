@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.util.List;
+
+/**
+ * Common view of the token-level dictionary automata used by
+ * AhoCorasickLookupAnnotator.
+ */
+public interface LookupDict {
+
+	/**
+	 * Scans tokens[0..length) once, without recursion, and reports hits to
+	 * the handler as they are found.
+	 *
+	 * @param longest
+	 *            if true only leftmost-longest hits are reported: the longest
+	 *            hit at the leftmost start, then scanning resumes after it. If
+	 *            false every hit is reported, ordered by end position.
+	 */
+	public void find(String[] tokens, int length, boolean longest,
+			MatchHandler handler);
+
+	/**
+	 * Same as find(String[], ...) over token ids from getTokenId(), so
+	 * callers that map tokens to ids ahead of time avoid hashing strings
+	 * while matching.
+	 */
+	public void find(int[] ids, int length, boolean longest,
+			MatchHandler handler);
+
+	/**
+	 * @return the id of the token, or -1 if the token does not occur in any
+	 *         dictionary entry
+	 */
+	public int getTokenId(String token);
+
+	/**
+	 * @return every distinct token of the dictionary keys
+	 */
+	public List<String> getKeyTokens();
+
+	/**
+	 * @return the parsed entry data, indexed by hit payload
+	 */
+	public DictEntries getEntries();
+
+	/**
+	 * @return the entry data of a hit payload as text; entries with the same
+	 *         key are joined with AhoCorasickDict.SLDELIM
+	 */
+	public String getLabel(int payload);
+
+}
@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An immutable dictionary plus the changes of a delta file.
+ *
+ * Every key named in the delta is taken out of the main dictionary and
+ * rebuilt, with its remaining and added entries, in a small AhoCorasickDict
+ * overlay. A key is therefore in exactly one of the two automata, and a
+ * lookup is the union of both, with leftmost-longest selection done over
+ * the union. The main dictionary is never modified: applying a newer delta
+ * means building a new OverlayDict from the same main dictionary and
+ * swapping the reference, see DeltaWatcher.
+ *
+ * Delta file lines, with keys tokenized as in the dictionary file:
+ *
+ * <pre>
+ * # comment
+ * +key|term|norm|semGroup   add an entry (the + is optional)
+ * -key|term|norm|semGroup   remove that entry
+ * -key                      remove every entry of the key
+ * </pre>
+ *
+ * Token ids of the main dictionary are kept; tokens only in the overlay get
+ * ids below -1. Entries moved from a merged main dictionary keep their
+ * source, added entries are source 0. Gap keys, see GapDict, cannot be
+ * changed by a delta.
+ */
+public class OverlayDict implements LookupDict {
+
+	private static Logger iv_logger = Logger.getLogger(OverlayDict.class.getName());
+
+	final LookupDict main;
+	final AhoCorasickDict overlay;
+	// payloads of main whose keys moved to the overlay
+	final boolean[] removed;
+	final int mainPayloads;
+	final DictEntries entries;
+	// overlay token id of each main token id, -1 if none
+	final int[] overlayIdOfMain;
+	// ids of the overlay tokens that main does not know, id -2-i for index i
+	final HashMap<String, Integer> extraIds;
+	final int[] overlayIdOfExtra;
+	// true if the delta changes nothing, lookups then go straight to main
+	final boolean unchanged;
+	// the dictionary is shared between threads, its find() buffers are not
+	private final ThreadLocal<Hits> buffers = new ThreadLocal<Hits>() {
+		@Override
+		protected Hits initialValue() {
+			return new Hits();
+		}
+	};
+
+	OverlayDict(LookupDict main, LinkedHashMap<String, ArrayList<String>> keys,
+			ArrayList<Integer> moved) {
+		this.main = main;
+		DictEntries mainEntries = main.getEntries();
+		mainPayloads = mainEntries.size();
+		removed = new boolean[mainPayloads];
+		for (int payload : moved) removed[payload] = true;
+		overlay = new AhoCorasickDict();
+		for (String key : keys.keySet())
+			for (String data : keys.get(key))
+				overlay.put(key, data);
+		overlay.faillinking();
+		unchanged = moved.isEmpty() && overlay.terminals.isEmpty();
+
+		int maxMainId = -1;
+		for (String token : overlay.tokenList)
+			maxMainId = Math.max(maxMainId, main.getTokenId(token));
+		overlayIdOfMain = new int[maxMainId + 1];
+		Arrays.fill(overlayIdOfMain, -1);
+		extraIds = new HashMap<String, Integer>();
+		ArrayList<Integer> extra = new ArrayList<Integer>();
+		for (int i = 0; i < overlay.tokenList.size(); i++) {
+			String token = overlay.tokenList.get(i);
+			int id = main.getTokenId(token);
+			if (id >= 0) overlayIdOfMain[id] = i;
+			else {
+				extraIds.put(token, -2 - extra.size());
+				extra.add(i);
+			}
+		}
+		overlayIdOfExtra = new int[extra.size()];
+		for (int i = 0; i < overlayIdOfExtra.length; i++) overlayIdOfExtra[i] = extra.get(i);
+
+		entries = DictEntries.concat(mainEntries, overlay.getEntries());
+	}
+
+	/**
+	 * Applies a delta file to an immutable dictionary.
+	 */
+	public static OverlayDict load(LookupDict main, String deltafile) throws IOException {
+		DictEntries mainEntries = main.getEntries();
+		// key -> entries it ends up with, for every key named in the delta
+		LinkedHashMap<String, ArrayList<String>> keys = new LinkedHashMap<String, ArrayList<String>>();
+		ArrayList<Integer> moved = new ArrayList<Integer>();
+		int adds = 0, removes = 0;
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(deltafile)));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().length() == 0 || line.startsWith("#")) continue;
+				boolean remove = line.startsWith("-");
+				if (remove || line.startsWith("+")) line = line.substring(1);
+				int index = line.indexOf(AhoCorasickDict.DICTDATADELIM);
+				String key = normalizeKey(index < 0 ? line : line.substring(0, index));
+				String data = index < 0 ? null : line.substring(index + AhoCorasickDict.DICTDATADELIM.length());
+				if (key.length() == 0 || (!remove && data == null) || GapDict.isGapKey(key)) {
+					iv_logger.warn("skipping delta line: " + line);
+					continue;
+				}
+
+				ArrayList<String> list = keys.get(key);
+				if (list == null) {
+					// take the key out of main with all its current entries
+					list = new ArrayList<String>();
+					int payload = findKey(main, key);
+					if (payload >= 0) {
+						moved.add(payload);
+						for (int e = mainEntries.first(payload); e < mainEntries.end(payload); e++)
+							list.add(DictEntries.tag(mainEntries.getSource(e),
+									mainEntries.getEntryLabel(e)));
+					}
+					keys.put(key, list);
+				}
+				if (remove) {
+					removes++;
+					if (data == null) list.clear();
+					// whatever source the entry came from
+					else for (int i = list.size() - 1; i >= 0; i--)
+						if (DictEntries.untag(list.get(i)).equals(data)) list.remove(i);
+				}
+				else {
+					adds++;
+					if (!list.contains(data)) list.add(data);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		OverlayDict dict = new OverlayDict(main, keys, moved);
+		iv_logger.info("applied " + adds + " additions and " + removes
+				+ " removals from " + deltafile + ", " + keys.size()
+				+ " keys in the overlay");
+		return dict;
+	}
+
+	private static String normalizeKey(String key) {
+		StringBuilder sb = new StringBuilder();
+		for (String token : key.trim().split(AhoCorasickDict.DELIMITER)) {
+			if (token.length() == 0) continue;
+			if (sb.length() > 0) sb.append(' ');
+			sb.append(token);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the payload of the key in dict, or -1 if it is not a key
+	 */
+	public static int findKey(LookupDict dict, String key) {
+		final String[] tokens = key.split(" ");
+		final int[] payload = { -1 };
+		dict.find(tokens, tokens.length, false, new MatchHandler() {
+			public void match(int start, int length, int p) {
+				if (start == 0 && length == tokens.length) payload[0] = p;
+			}
+		});
+		return payload[0];
+	}
+
+	public int getTokenId(String token) {
+		int id = main.getTokenId(token);
+		if (id >= 0) return id;
+		Integer extra = extraIds.get(token);
+		return extra == null ? -1 : extra;
+	}
+
+	private int overlayId(int id) {
+		if (id >= 0) return id < overlayIdOfMain.length ? overlayIdOfMain[id] : -1;
+		if (id < -1 && -2 - id < overlayIdOfExtra.length) return overlayIdOfExtra[-2 - id];
+		return -1;
+	}
+
+	public void find(String[] tokens, int length, boolean longest,
+			MatchHandler handler) {
+		if (unchanged) {
+			main.find(tokens, length, longest, handler);
+			return;
+		}
+		Hits hits = hits();
+		try {
+			main.find(tokens, length, false, hits.main);
+			overlay.find(tokens, length, false, hits.overlay);
+			hits.report(longest, handler);
+		} finally {
+			hits.busy = false;
+		}
+	}
+
+	public void find(int[] ids, int length, boolean longest,
+			MatchHandler handler) {
+		if (unchanged) {
+			main.find(ids, length, longest, handler);
+			return;
+		}
+		Hits hits = hits();
+		if (hits.mainIds.length < length) {
+			hits.mainIds = new int[Math.max(length, hits.mainIds.length * 2)];
+			hits.overlayIds = new int[hits.mainIds.length];
+		}
+		int[] mainIds = hits.mainIds;
+		int[] overlayIds = hits.overlayIds;
+		for (int i = 0; i < length; i++) {
+			mainIds[i] = ids[i] >= 0 ? ids[i] : -1;
+			overlayIds[i] = overlayId(ids[i]);
+		}
+		try {
+			main.find(mainIds, length, false, hits.main);
+			overlay.find(overlayIds, length, false, hits.overlay);
+			hits.report(longest, handler);
+		} finally {
+			hits.busy = false;
+		}
+	}
+
+	/**
+	 * @return the cleared buffers of this thread, or new ones if a handler
+	 *         calls find() again while they are in use
+	 */
+	private Hits hits() {
+		Hits hits = buffers.get();
+		if (hits.busy) hits = new Hits();
+		hits.clear();
+		hits.busy = true;
+		return hits;
+	}
+
+	public List<String> getKeyTokens() {
+		final List<String> mainTokens = main.getKeyTokens();
+		return new AbstractList<String>() {
+			public String get(int i) {
+				if (i < mainTokens.size()) return mainTokens.get(i);
+				return overlay.tokenList.get(overlayIdOfExtra[i - mainTokens.size()]);
+			}
+
+			public int size() {
+				return mainTokens.size() + overlayIdOfExtra.length;
+			}
+		};
+	}
+
+	public DictEntries getEntries() {
+		return entries;
+	}
+
+	public String getLabel(int payload) {
+		return entries.getLabel(payload);
+	}
+
+	public LookupDict getMain() {
+		return main;
+	}
+
+	/**
+	 * All hits of both automata for one find() call; overlay payloads are
+	 * shifted past those of main. Reused by the find() calls of a thread,
+	 * with the token ids they pass on.
+	 */
+	class Hits extends HitList {
+
+		int[] mainIds = new int[64];
+		int[] overlayIds = new int[64];
+		boolean busy;
+
+		final MatchHandler main = new MatchHandler() {
+			public void match(int s, int l, int p) {
+				if (!removed[p]) Hits.this.match(s, l, p);
+			}
+		};
+
+		final MatchHandler overlay = new MatchHandler() {
+			public void match(int s, int l, int p) {
+				Hits.this.match(s, l, p + mainPayloads);
+			}
+		};
+	}
+
+	/**
+	 * Rebuilds the overlay when a delta file changes and hands the new
+	 * OverlayDict to a listener. Checks run on a daemon timer thread, so
+	 * lookups on the current dictionary never wait for a rebuild.
+	 */
+	public static class DeltaWatcher extends TimerTask {
+
+		public interface Listener {
+			void swap(LookupDict dict);
+		}
+
+		final LookupDict main;
+		final File delta;
+		final Listener listener;
+		long lastModified = -1;
+		long lastLength = -1;
+		Timer timer;
+
+		public DeltaWatcher(LookupDict main, String deltafile, Listener listener) {
+			this.main = main;
+			this.delta = new File(deltafile);
+			this.listener = listener;
+		}
+
+		/**
+		 * Applies the delta file if it exists, then checks it for changes
+		 * every interval milliseconds.
+		 */
+		public void start(long interval) {
+			run();
+			timer = new Timer("dictionary delta " + delta.getName(), true);
+			timer.schedule(this, interval, interval);
+		}
+
+		public void stop() {
+			if (timer != null) timer.cancel();
+		}
+
+		public void run() {
+			long modified = delta.exists() ? delta.lastModified() : 0;
+			long length = delta.exists() ? delta.length() : 0;
+			if (modified == lastModified && length == lastLength) return;
+			try {
+				listener.swap(delta.exists() ? load(main, delta.getPath()) : main);
+				lastModified = modified;
+				lastLength = length;
+			} catch (IOException e) {
+				// keep the current dictionary, and try again next time
+				iv_logger.error("cannot apply dictionary delta " + delta, e);
+			} catch (RuntimeException e) {
+				// a runtime exception would cancel the timer for good
+				iv_logger.error("cannot apply dictionary delta " + delta, e);
+			}
+		}
+	}
+}
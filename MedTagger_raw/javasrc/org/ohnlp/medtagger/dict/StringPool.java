@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.dict;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Read-only list of strings packed into one char buffer, with an optional
+ * open addressing hash index for indexOf(). The buffers are either wrapped
+ * heap arrays or slices of a memory-mapped DictImage, so a pool never holds
+ * one object per string.
+ */
+public class StringPool {
+
+	final int count;
+	final IntBuffer offsets;
+	final CharBuffer chars;
+	// slot -> index+1, 0 for empty; null if the pool is not indexed
+	final IntBuffer table;
+	final int mask;
+
+	StringPool(int count, IntBuffer offsets, CharBuffer chars, IntBuffer table) {
+		this.count = count;
+		this.offsets = offsets;
+		this.chars = chars;
+		this.table = table;
+		this.mask = table == null ? 0 : table.capacity() - 1;
+	}
+
+	/**
+	 * Packs the strings; index i of the pool is strings[i].
+	 *
+	 * @param indexed
+	 *            whether to build the hash index for indexOf()
+	 */
+	public static StringPool of(String[] strings, boolean indexed) {
+		int[] offsets = new int[strings.length + 1];
+		int len = 0;
+		for (int i = 0; i < strings.length; i++) {
+			offsets[i] = len;
+			len += strings[i].length();
+		}
+		offsets[strings.length] = len;
+		char[] chars = new char[len];
+		for (int i = 0; i < strings.length; i++)
+			strings[i].getChars(0, strings[i].length(), chars, offsets[i]);
+
+		int[] table = null;
+		if (indexed) {
+			int n = 2;
+			while (n < strings.length * 2) n <<= 1;
+			table = new int[n];
+			for (int i = 0; i < strings.length; i++) {
+				int slot = hash(strings[i]) & (n - 1);
+				while (table[slot] != 0) slot = (slot + 1) & (n - 1);
+				table[slot] = i + 1;
+			}
+		}
+		return new StringPool(strings.length, IntBuffer.wrap(offsets),
+				CharBuffer.wrap(chars), table == null ? null : IntBuffer.wrap(table));
+	}
+
+	// String.hashCode() for any CharSequence, so builders find their strings
+	static int hash(CharSequence s) {
+		int h;
+		if (s instanceof String) h = s.hashCode();
+		else {
+			h = 0;
+			for (int i = 0; i < s.length(); i++) h = 31 * h + s.charAt(i);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public String get(int i) {
+		int begin = offsets.get(i), end = offsets.get(i + 1);
+		char[] buf = new char[end - begin];
+		for (int k = 0; k < buf.length; k++)
+			buf[k] = chars.get(begin + k);
+		return new String(buf);
+	}
+
+	public boolean equals(int i, CharSequence s) {
+		int begin = offsets.get(i), end = offsets.get(i + 1);
+		if (end - begin != s.length()) return false;
+		for (int k = 0; k < s.length(); k++)
+			if (chars.get(begin + k) != s.charAt(k)) return false;
+		return true;
+	}
+
+	/**
+	 * @return the index of s, or -1 if s is not in the pool
+	 */
+	public int indexOf(CharSequence s) {
+		int slot = hash(s) & mask;
+		int v;
+		while ((v = table.get(slot)) != 0) {
+			if (equals(v - 1, s)) return v - 1;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		int charLen = offsets.get(count);
+		out.writeInt(count);
+		out.writeInt(table == null ? 0 : table.capacity());
+		out.writeInt(charLen);
+		for (int i = 0; i <= count; i++) out.writeInt(offsets.get(i));
+		if (table != null)
+			for (int i = 0; i < table.capacity(); i++) out.writeInt(table.get(i));
+		for (int i = 0; i < charLen; i++) out.writeChar(chars.get(i));
+		if (charLen % 2 != 0) out.writeChar(0);
+	}
+
+	/**
+	 * Reads a pool written by write() at the buffer's position, without
+	 * copying, and moves the position past it.
+	 */
+	public static StringPool read(ByteBuffer buf) {
+		int count = buf.getInt();
+		int tableSize = buf.getInt();
+		int charLen = buf.getInt();
+		IntBuffer offsets = ints(buf, count + 1);
+		IntBuffer table = tableSize == 0 ? null : ints(buf, tableSize);
+		ByteBuffer slice = buf.slice();
+		slice.limit(charLen * 2);
+		CharBuffer chars = slice.asCharBuffer();
+		buf.position(buf.position() + (charLen + charLen % 2) * 2);
+		return new StringPool(count, offsets, chars, table);
+	}
+
+	/**
+	 * @return the n ints at the buffer's position, without copying; moves
+	 *         the position past them
+	 */
+	public static IntBuffer ints(ByteBuffer buf, int n) {
+		ByteBuffer slice = buf.slice();
+		slice.limit(n * 4);
+		buf.position(buf.position() + n * 4);
+		return slice.asIntBuffer();
+	}
+}
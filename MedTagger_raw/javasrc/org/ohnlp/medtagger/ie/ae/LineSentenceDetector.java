@@ -122,7 +122,9 @@ public class LineSentenceDetector  extends JCasAnnotator_ImplBase {
 			    cToken.setPartOfSpeech(bt.getPartOfSpeech());
 			    newbtList.add(cToken);
 				}
-			 else if(bt.getPartOfSpeech().equals("CD")){
+			 // untagged if the aggregate has no POS tagger; longer numbers
+			 // then become word tokens below
+			 else if("CD".equals(bt.getPartOfSpeech())){
 				 NumToken nToken=new NumToken(jCas, bt.getBegin(), bt.getEnd());
 				 nToken.setPartOfSpeech(bt.getPartOfSpeech());
 				 newbtList.add(nToken);				
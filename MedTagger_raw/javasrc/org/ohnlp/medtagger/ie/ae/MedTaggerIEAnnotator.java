@@ -25,6 +25,7 @@ package org.ohnlp.medtagger.ie.ae;
 
 import org.apache.uima.analysis_component.JCasAnnotator_ImplBase;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -87,7 +88,11 @@ public class MedTaggerIEAnnotator extends JCasAnnotator_ImplBase {
 		super.initialize(aContext);
 		resource_dir = (String) aContext
 				.getConfigParameterValue(PARAM_RESOURCE_DIR);
-		rum = new ResourceUtilManager(resource_dir);
+		try {
+			rum = ResourceUtilManager.get(resource_dir);
+		} catch (IOException e) {
+			throw new ResourceInitializationException(e);
+		}
 		deleteAllInsideMatch = (Boolean) aContext
 				.getConfigParameterValue(removeAllSub);
 	}
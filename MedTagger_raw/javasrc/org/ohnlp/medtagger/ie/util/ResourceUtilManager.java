@@ -38,6 +38,8 @@ import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
+import org.ohnlp.medtagger.util.ResourceRegistry;
+
 
 /**
  * 
@@ -70,6 +72,19 @@ public class ResourceUtilManager {
 		return ResourceUtilManager.INSTANCE;
 	}
 	
+	/**
+	 * @return the rules of the resource directory, shared by the whole JVM,
+	 *         see ResourceRegistry; they are reloaded when a file in the
+	 *         directory changes
+	 */
+	public static ResourceUtilManager get(final String resourcedir) throws IOException {
+		return ResourceRegistry.get("IE rules", new ResourceRegistry.Loader<ResourceUtilManager>() {
+			public ResourceUtilManager load() {
+				return new ResourceUtilManager(resourcedir);
+			}
+		}, resourcedir);
+	}
+
 	public ResourceUtilManager(String resourcedir) {
 		System.out.println("resourcedir " + resourcedir);
 		RESOURCEDIR=resourcedir;
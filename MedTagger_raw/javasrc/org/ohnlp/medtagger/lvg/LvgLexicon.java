@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.lvg;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.log4j.Logger;
+
+import org.ohnlp.medtagger.dict.StringPool;
+import org.ohnlp.medtagger.util.ResourceRegistry;
+
+/**
+ * The word to canonical form table of an LVG condensed dictionary
+ * (word|canonical lines, # for comments) as two StringPools: the words with
+ * a hash index, and the distinct canonical forms, with the canonical form
+ * of word i at canonical.get(index.get(i)).
+ *
+ * The pools are compiled once into a binary image next to the dictionary,
+ * dictionary path + ".img", and mapped read-only afterwards, as DictImage
+ * does for lookup dictionaries: the table lives off-heap and loading costs
+ * a checksum pass. If the image cannot be written, the pools are built on
+ * the heap from one pass over the dictionary. Lexicons are immutable and
+ * shared by every component of the JVM, see get().
+ *
+ * Image layout (big endian): magic, format version, length and
+ * modification time of the dictionary, CRC32 of the body; the body holds
+ * the word pool, the canonical index of every word and the canonical pool.
+ *
+ * usage: LvgLexicon lvg_dict [image_file]
+ */
+public class LvgLexicon {
+
+	static final int MAGIC = 0x4D544C56; // "MTLV"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int CHECKSUM_OFFSET = 24;
+
+	private static Logger iv_logger = Logger.getLogger(LvgLexicon.class.getName());
+
+	final StringPool words;
+	final IntBuffer index;
+	final StringPool canonical;
+	// canonical forms handed out so far, so each is materialized once
+	private final String[] forms;
+
+	LvgLexicon(StringPool words, IntBuffer index, StringPool canonical) {
+		this.words = words;
+		this.index = index;
+		this.canonical = canonical;
+		forms = new String[canonical.size()];
+	}
+
+	/**
+	 * @return the lexicon of the dictionary, shared by the whole JVM, see
+	 *         ResourceRegistry
+	 */
+	public static LvgLexicon get(final String dict) throws IOException {
+		return ResourceRegistry.get("LVG lexicon", new ResourceRegistry.Loader<LvgLexicon>() {
+			public LvgLexicon load() throws IOException {
+				return LvgLexicon.load(dict, dict + ".img");
+			}
+		}, dict);
+	}
+
+	/**
+	 * Maps the image of dict, compiling it first if it is missing, out of
+	 * date or fails its checksum; builds the lexicon on the heap if the
+	 * image cannot be written.
+	 */
+	public static LvgLexicon load(String dict, String imagefile) throws IOException {
+		long start = System.currentTimeMillis();
+		File source = new File(dict);
+		File image = new File(imagefile);
+		LvgLexicon lexicon = image.exists() ? map(image, source) : null;
+		if (lexicon == null) {
+			lexicon = read(source);
+			try {
+				compile(lexicon, source, image);
+				lexicon = map(image, source);
+			} catch (IOException e) {
+				iv_logger.warn("cannot write " + image + ", keeping " + dict
+						+ " on the heap: " + e.getMessage());
+			}
+		}
+		iv_logger.info("loaded LVG lexicon " + dict + ", " + lexicon.size()
+				+ " words in " + (System.currentTimeMillis() - start) + " ms");
+		return lexicon;
+	}
+
+	/**
+	 * Builds the lexicon on the heap in one pass over the dictionary; a word
+	 * listed twice keeps its last canonical form.
+	 */
+	static LvgLexicon read(File dict) throws IOException {
+		HashMap<String, Integer> wordIds = new HashMap<String, Integer>();
+		HashMap<String, Integer> formIds = new HashMap<String, Integer>();
+		ArrayList<String> wordList = new ArrayList<String>();
+		ArrayList<String> formList = new ArrayList<String>();
+		ArrayList<Integer> formOf = new ArrayList<Integer>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(dict), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#")) continue;
+				int bar = line.indexOf('|');
+				// as String.split("\\|") would, skip lines with one field
+				if (bar < 0 || line.substring(bar + 1).replace("|", "").length() == 0) continue;
+				int end = line.indexOf('|', bar + 1);
+				String word = line.substring(0, bar);
+				String form = line.substring(bar + 1, end < 0 ? line.length() : end);
+				Integer formId = formIds.get(form);
+				if (formId == null) {
+					formIds.put(form, formId = formList.size());
+					formList.add(form);
+				}
+				Integer wordId = wordIds.get(word);
+				if (wordId != null) {
+					formOf.set(wordId, formId);
+					continue;
+				}
+				wordIds.put(word, wordList.size());
+				wordList.add(word);
+				formOf.add(formId);
+			}
+		} finally {
+			reader.close();
+		}
+		int[] index = new int[formOf.size()];
+		for (int i = 0; i < index.length; i++) index[i] = formOf.get(i);
+		return new LvgLexicon(StringPool.of(wordList.toArray(new String[wordList.size()]), true),
+				IntBuffer.wrap(index),
+				StringPool.of(formList.toArray(new String[formList.size()]), false));
+	}
+
+	/**
+	 * Writes the image of a lexicon read from source, through a temporary
+	 * file of its own that is moved over the old image atomically, so
+	 * readers never see a partial or missing image.
+	 */
+	static void compile(LvgLexicon lexicon, File source, File image) throws IOException {
+		File tmp = File.createTempFile(image.getName() + ".", ".tmp",
+				image.getAbsoluteFile().getParentFile());
+		try {
+			write(lexicon, source, tmp);
+			Files.move(tmp.toPath(), image.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	private static void write(LvgLexicon lexicon, File source, File tmp) throws IOException {
+		FileOutputStream fos = new FileOutputStream(tmp);
+		CRC32 crc = new CRC32();
+		try {
+			DataOutputStream header = new DataOutputStream(fos);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeLong(source.length());
+			header.writeLong(source.lastModified());
+			header.writeLong(0);
+			header.flush();
+
+			DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+					new BufferedOutputStream(fos, 1 << 16), crc));
+			lexicon.words.write(out);
+			for (int i = 0; i < lexicon.size(); i++) out.writeInt(lexicon.index.get(i));
+			lexicon.canonical.write(out);
+			out.flush();
+		} finally {
+			fos.close();
+		}
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.seek(CHECKSUM_OFFSET);
+			raf.writeLong(crc.getValue());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the mapped lexicon, or null if the image is not a valid image
+	 *         of the current source
+	 */
+	static LvgLexicon map(File image, File source) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(image, "r");
+		MappedByteBuffer buf;
+		try {
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+		if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC
+				|| buf.getInt(4) != VERSION) {
+			iv_logger.info(image + " is not an LVG lexicon image of version " + VERSION);
+			return null;
+		}
+		if (source.exists()
+				&& (buf.getLong(8) != source.length() || buf.getLong(16) != source.lastModified())) {
+			iv_logger.info(image + " is out of date with " + source);
+			return null;
+		}
+		ByteBuffer body = buf.duplicate();
+		body.position(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		crc.update(body.slice());
+		if (crc.getValue() != buf.getLong(CHECKSUM_OFFSET)) {
+			iv_logger.warn(image + " failed its checksum");
+			return null;
+		}
+		StringPool words = StringPool.read(body);
+		IntBuffer index = StringPool.ints(body, words.size());
+		StringPool canonical = StringPool.read(body);
+		return new LvgLexicon(words, index, canonical);
+	}
+
+	/**
+	 * @return the number of words
+	 */
+	public int size() {
+		return words.size();
+	}
+
+	/**
+	 * @return the number of distinct canonical forms
+	 */
+	public int canonicalCount() {
+		return canonical.size();
+	}
+
+	/**
+	 * @return word i, in no particular order
+	 */
+	public String getWord(int i) {
+		return words.get(i);
+	}
+
+	/**
+	 * @return the index of the canonical form of word i
+	 */
+	public int getCanonicalIndex(int i) {
+		return index.get(i);
+	}
+
+	/**
+	 * @return canonical form i, in order of first occurrence in the
+	 *         dictionary
+	 */
+	public String getCanonicalForm(int i) {
+		String s = forms[i];
+		if (s == null) forms[i] = s = canonical.get(i);
+		return s;
+	}
+
+	/**
+	 * @return the canonical form of a lower case word, or null if the word
+	 *         is not in the dictionary
+	 */
+	public String getCanonical(CharSequence word) {
+		int i = words.indexOf(word);
+		if (i < 0) return null;
+		return getCanonicalForm(index.get(i));
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: LvgLexicon lvg_dict [image_file]");
+			System.exit(1);
+		}
+		File source = new File(args[0]);
+		File image = new File(args.length > 1 ? args[1] : args[0] + ".img");
+		compile(read(source), source, image);
+		iv_logger.info("compiled " + source + " into " + image);
+	}
+}
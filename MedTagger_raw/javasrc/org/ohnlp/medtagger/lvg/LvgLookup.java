@@ -23,59 +23,223 @@
  *******************************************************************************/
 package org.ohnlp.medtagger.lvg;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Scanner;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_component.JCasAnnotator_ImplBase;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.jcas.JFSIndexRepository;
 import org.apache.uima.resource.ResourceAccessException;
 import org.apache.uima.resource.ResourceInitializationException;
 
+import org.ohnlp.medtagger.ae.TokenTable;
+import org.ohnlp.medtagger.dict.StringPool;
+import org.ohnlp.medtagger.util.ResourceRegistry;
 import org.ohnlp.typesystem.type.syntax.WordToken;
 
 public class LvgLookup extends JCasAnnotator_ImplBase {
 
 	// LOG4J logger based on class name
 	private Logger logger = Logger.getLogger(getClass().getName());
-     HashMap<String, String> lvgMap;
+    // shared by every LvgLookup of the same dictionary, see LvgLexicon
+    LvgLexicon lexicon;
     HashSet<String> openclass; 
+    // the same words, looked up by getNorm() without making strings
+    StringPool openclassWords;
+    // ids of the canonical forms, null unless a lookup dictionary is bound
+    TokenVocabulary vocab;
     //private static OpenClassWords pds = new OpenClassWords();
     
     
+	// normalized phrases kept per thread, see getNorm()
+	static final int NORM_CACHE_SIZE = 4096;
+	// false if the default locale lower cases ASCII letters differently
+	static final boolean ASCII_LOWER = "I".toLowerCase().equals("i");
+
+	private final ThreadLocal<Normalizer> normalizers = new ThreadLocal<Normalizer>() {
+		@Override
+		protected Normalizer initialValue() {
+			return new Normalizer();
+		}
+	};
+
 	//for the stand alone version
+	/**
+	 * Lower cases the phrase and replaces each whitespace separated word by
+	 * its canonical form, or by nothing if it is an open class word. Section
+	 * headers and short phrases repeat constantly, so results are kept in a
+	 * small LRU cache of the calling thread.
+	 */
 	public String getNorm(String phrase) {
-		String lower = phrase.toLowerCase();
-		String ret="";
-		for (String word : lower.split("\\s")){
-			if(openclass.contains(word)) 
-				ret+=" "+ ("");
-	        else if(lvgMap.containsKey(word)) 
-	        	ret+=" "+ (lvgMap.get(word));
-	        else ret+=" "+ (word);
+		return normalizers.get().getNorm(phrase);
+	}
+
+	/**
+	 * getNorm() of text that is not a String, e.g. a reused buffer; the
+	 * result is not cached.
+	 */
+	public String getNorm(CharSequence phrase) {
+		if (phrase instanceof String) return getNorm((String) phrase);
+		return normalizers.get().normalize(phrase);
+	}
+
+	/**
+	 * @return the word text[start,end), which holds no whitespace, in lower
+	 *         case as getNorm() sees it; the buffer is reused by the next
+	 *         call of the thread
+	 */
+	public CharSequence getLowerWord(CharSequence text, int start, int end) {
+		return normalizers.get().lower(text, start, end);
+	}
+
+	/**
+	 * @return getNorm() of the word text[start,end), which holds no
+	 *         whitespace: "" for an open class word
+	 */
+	public String getNormWord(CharSequence text, int start, int end) {
+		Normalizer normalizer = normalizers.get();
+		normalizer.lower(text, start, end);
+		return normalizer.map();
+	}
+
+	/**
+	 * @return true if the lower case word is an open class word
+	 */
+	public boolean isOpenClass(CharSequence word) {
+		return openclassWords.indexOf(word) >= 0;
+	}
+
+	public LvgLexicon getLexicon() {
+		return lexicon;
+	}
+
+	// the characters getNorm() splits words on, those of \s in a regex
+	public static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\013' || c == '\f'
+				|| c == '\r';
+	}
+
+	/**
+	 * getNorm() of one thread: walks the phrase once and writes into reused
+	 * builders instead of splitting and concatenating. The output is the
+	 * same as that of lower casing, split("\\s"), joining the mapped words
+	 * with single spaces and trim(), so empty words between adjacent
+	 * whitespace still give double spaces.
+	 */
+	class Normalizer {
+		final StringBuilder word = new StringBuilder();
+		final StringBuilder out = new StringBuilder();
+		final LinkedHashMap<String, String> cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > NORM_CACHE_SIZE;
+			}
+		};
+
+		String getNorm(String phrase) {
+			String norm = cache.get(phrase);
+			if (norm == null) {
+				norm = normalize(phrase);
+				cache.put(phrase, norm);
+			}
+			return norm;
 		}
-        return ret.trim();
-  	}
-	
-    
+
+		String normalize(CharSequence phrase) {
+			// String.toLowerCase() may change the length of non-ASCII text
+			boolean ascii = ASCII_LOWER;
+			for (int i = 0; ascii && i < phrase.length(); i++)
+				ascii = phrase.charAt(i) < 128;
+			CharSequence text = ascii ? phrase : phrase.toString().toLowerCase();
+
+			// split() drops trailing empty words, and whitespace only gives none
+			int end = text.length();
+			while (end > 0 && isSpace(text.charAt(end - 1))) end--;
+			if (end == 0 && text.length() > 0) return "";
+
+			out.setLength(0);
+			int start = 0;
+			while (true) {
+				word.setLength(0);
+				int i = start;
+				for (char c; i < end && !isSpace(c = text.charAt(i)); i++)
+					word.append(ascii && c >= 'A' && c <= 'Z' ? (char) (c + 32) : c);
+				out.append(' ');
+				if (openclassWords.indexOf(word) < 0) {
+					String canonical = lexicon.getCanonical(word);
+					if (canonical != null) out.append(canonical);
+					else out.append(word);
+				}
+				if (i >= end) break;
+				start = i + 1;
+			}
+
+			int b = 0, e = out.length();
+			while (b < e && out.charAt(b) <= ' ') b++;
+			while (e > b && out.charAt(e - 1) <= ' ') e--;
+			return out.substring(b, e);
+		}
+
+		// lower cases one word into word
+		CharSequence lower(CharSequence text, int start, int end) {
+			word.setLength(0);
+			boolean ascii = ASCII_LOWER;
+			for (int i = start; ascii && i < end; i++)
+				ascii = text.charAt(i) < 128;
+			if (!ascii) return word.append(text.subSequence(start, end).toString().toLowerCase());
+			for (int i = start; i < end; i++) {
+				char c = text.charAt(i);
+				word.append(c >= 'A' && c <= 'Z' ? (char) (c + 32) : c);
+			}
+			return word;
+		}
+
+		// the normalized form of the word in word
+		String map() {
+			if (openclassWords.indexOf(word) >= 0) return "";
+			String canonical = lexicon.getCanonical(word);
+			return canonical != null ? canonical : word.toString();
+		}
+	}
+
+	/**
+	 * @return the canonical form of a word token, or null for open class
+	 *         words; this is what process() sets on WordTokens
+	 */
+	public String getCanonicalForm(String word) {
+		String lower = word.toLowerCase();
+		if(openclass.contains(lower)) return null;
+		String canonical = lexicon.getCanonical(lower);
+		return canonical != null ? canonical : lower;
+	}
+
 	@Override
 	public void process(JCas aJCas) throws AnalysisEngineProcessException {
-		JFSIndexRepository indexes = aJCas.getJFSIndexRepository();
-		Iterator<?> tokenItr = indexes.getAnnotationIndex(WordToken.type).iterator();
-		while (tokenItr.hasNext())
+		// the table is built right after tokenization and shared with the
+		// annotators after this one; the words are read from the text
+		TokenTable table = TokenTable.get(aJCas);
+		table.setVocabulary(vocab);
+		String text = table.getText();
+		for (int i = 0; i < table.size(); i++)
         {
-        	WordToken token = (WordToken) tokenItr.next(); String lower = token.getCoveredText().toLowerCase();
-        	if(openclass.contains(lower)) token.setCanonicalForm(null);
-        	else if(lvgMap.containsKey(lower)) token.setCanonicalForm(lvgMap.get(lower));
-        	else token.setCanonicalForm(lower);
+        	if(table.getKind(i)!=TokenTable.WORD) continue;
+        	// getCanonicalForm() without the substring and lower case copies
+        	String canonical = getNormWord(text, table.getBegin(i), table.getEnd(i));
+        	if(canonical.length()==0) canonical = null;
+        	WordToken token = (WordToken) table.getToken(i);
+        	token.setCanonicalForm(canonical);
+        	if(vocab!=null && canonical!=null) {
+        		int id = vocab.getId(canonical);
+        		token.setCanonicalId(id);
+        		table.setNormId(i, id);
+        	}
         }
 
 	}
@@ -90,41 +254,38 @@ public class LvgLookup extends JCasAnnotator_ImplBase {
 		localInitialize(dict, openclassFile);
 	}
 
+	/**
+	 * @return a stand alone LvgLookup of the files, shared by the whole JVM,
+	 *         see ResourceRegistry; getNorm() and getCanonicalForm() may be
+	 *         called from several threads
+	 */
+	public static LvgLookup get(final String dict, final String openclassFile)
+			throws IOException {
+		return ResourceRegistry.get("LVG lookup", new ResourceRegistry.Loader<LvgLookup>() {
+			public LvgLookup load() {
+				return new LvgLookup(dict, openclassFile);
+			}
+		}, dict, openclassFile);
+	}
+
 	public void localInitialize(String dict, String openclassFile) {
 		try {
-			Scanner sc = new Scanner(new File(dict));
 			logger.info("loading LVG condensed dictionary from:" +dict);
-			int count=0;
-			while(sc.hasNextLine()){
-				String line=sc.nextLine();
-				   if(line.startsWith("#")) continue;
-		
-				count++;
-			}
-			sc.close();sc = new Scanner(new File(dict));
-			lvgMap = new HashMap<String, String>(count);
-			while(sc.hasNextLine()){
-				 String line=sc.nextLine();
-			     if(line.startsWith("#")) continue;
-		
-				String[] splits=line.split("\\|");
-				if(splits.length<2) continue;
-				lvgMap.put(splits[0], splits[1]);
-			}
-			sc.close();
-			logger.info("loaded resource, lines=" +count);
+			lexicon = LvgLexicon.get(dict);
+			logger.info("loaded resource, words=" +lexicon.size());
 			
-			sc = new Scanner(new File(openclassFile));
-			while(sc.hasNextLine()){
-				     String line=sc.nextLine();
+			BufferedReader reader = new BufferedReader(new FileReader(openclassFile));
+			String line;
+			while((line=reader.readLine())!=null){
 				     if(line.startsWith("#")) continue;
 				String[] splits=line.split("\\s*,\\s*");
 				openclass = new HashSet<String>(Arrays.asList(splits));
+				openclassWords = StringPool.of(splits, true);
 				break;
 			}
-			sc.close();
+			reader.close();
 			
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
@@ -138,9 +299,25 @@ public class LvgLookup extends JCasAnnotator_ImplBase {
 			String dict = aContext.getResourceFilePath("lvg_dict");
 			String openclassFile = aContext.getResourceFilePath("openclass");
 			localInitialize(dict, openclassFile);
+			// optional: canonical ids are only set for a lookup dictionary
+			String lookupDict = aContext.getResourceFilePath("dict");
+			if(lookupDict!=null) vocab = TokenVocabulary.get(dict);
 		} catch (ResourceAccessException e) {
 			e.printStackTrace();
-		} 
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the vocabulary used for canonical ids, or null
+	 */
+	public TokenVocabulary getVocabulary() {
+		return vocab;
+	}
+
+	public void setVocabulary(TokenVocabulary vocab) {
+		this.vocab = vocab;
 	}
 
 }
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.lvg;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.ohnlp.medtagger.dict.StringPool;
+import org.ohnlp.medtagger.util.ResourceRegistry;
+
+/**
+ * Integer ids for normalized tokens, shared by LvgLookup and the dictionary
+ * lookup.
+ *
+ * The vocabulary holds the canonical forms of the LVG dictionary, in the
+ * order of LvgLexicon.getCanonicalForm(). Ids start at 1; UNKNOWN (0) stands
+ * for every other token. It depends on the LVG dictionary alone, not on the
+ * lookup dictionary, which may only be deployed as an image; a dictionary
+ * token that is no canonical form is looked up by its string instead. Every
+ * process that loads the same LVG dictionary assigns the same ids.
+ *
+ * Instances are immutable and shared per LVG dictionary, see get().
+ */
+public class TokenVocabulary {
+
+	public static final int UNKNOWN = 0;
+
+	private static Logger iv_logger = Logger.getLogger(TokenVocabulary.class.getName());
+
+	// index i holds the token with id i+1
+	private final StringPool tokens;
+
+	TokenVocabulary(StringPool tokens) {
+		this.tokens = tokens;
+	}
+
+	/**
+	 * @return the vocabulary of the LVG dictionary file, loading it on first
+	 *         use
+	 */
+	public static TokenVocabulary get(final String lvgDict) throws IOException {
+		return ResourceRegistry.get("token vocabulary", new ResourceRegistry.Loader<TokenVocabulary>() {
+			public TokenVocabulary load() throws IOException {
+				return TokenVocabulary.load(lvgDict);
+			}
+		}, lvgDict);
+	}
+
+	static TokenVocabulary load(String lvgDict) throws IOException {
+		LvgLexicon lexicon = LvgLexicon.get(lvgDict);
+		String[] forms = new String[lexicon.canonicalCount()];
+		for (int i = 0; i < forms.length; i++)
+			forms[i] = lexicon.getCanonicalForm(i);
+		iv_logger.info("token vocabulary: " + forms.length + " canonical forms");
+		return new TokenVocabulary(StringPool.of(forms, true));
+	}
+
+	/**
+	 * @return the id of a normalized token, or UNKNOWN
+	 */
+	public int getId(CharSequence token) {
+		return tokens.indexOf(token) + 1;
+	}
+
+	/**
+	 * @return the token with the given id, which must not be UNKNOWN
+	 */
+	public String get(int id) {
+		return tokens.get(id - 1);
+	}
+
+	/**
+	 * @return the largest id
+	 */
+	public int size() {
+		return tokens.size();
+	}
+}
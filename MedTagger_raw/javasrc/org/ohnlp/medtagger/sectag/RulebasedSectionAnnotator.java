@@ -21,14 +21,11 @@
  *  See the License for the specific language governing permissions and 
  *  limitations under the License. 
  *******************************************************************************/
-
 package org.ohnlp.medtagger.sectag;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
@@ -43,15 +40,35 @@ import org.apache.uima.resource.ResourceInitializationException;
 //import org.ohnlp.medtagger.type.ConceptMention;
 
 import org.ohnlp.typesystem.type.textspan.Segment;
-import org.ohnlp.typesystem.type.textspan.Sentence;
+import org.ohnlp.medtagger.ae.SentenceLayout;
 import org.ohnlp.medtagger.lvg.LvgLookup;
 
 /**
+ * Starts a new Segment at every sentence that is a section header of the
+ * section maps, see SectionHeaders.
+ *
+ * A sentence is a header if its normalized text is one. With headerPrefix
+ * a sentence "Header: text" is one too, and with headerAtLineStart every
+ * line of a sentence is tried, the lines before a header staying in the
+ * current section.
+ *
  * @author Hongfang Liu
  *
  */
 public class RulebasedSectionAnnotator extends JCasAnnotator_ImplBase {
 
+	// further section maps, merged after section_map; relative paths are
+	// resolved against the data path
+	public static final String PARAM_SECTION_MAPS = "sectionMaps";
+	// also take the text before the first colon of a sentence as its
+	// header, default false
+	public static final String PARAM_HEADER_PREFIX = "headerPrefix";
+	// also look for headers at the start of each line of a sentence,
+	// default false
+	public static final String PARAM_LINE_START = "headerAtLineStart";
+	// sentences longer than this are no headers, 0 (default) for no limit
+	public static final String PARAM_MAX_LENGTH = "maxHeaderSentenceLength";
+
 	private int sentCounter=0;
 
 	/* (non-Javadoc)
@@ -76,15 +93,12 @@ public class RulebasedSectionAnnotator extends JCasAnnotator_ImplBase {
 			seg.removeFromIndexes();
 		}
 		
-		// start the assignment of new segment
-		Iterator<?> senItr = indexes.getAnnotationIndex(Sentence.type)
-				.iterator();	
-		List<Sentence> senSets = new ArrayList<Sentence>();
-		
-		while (senItr.hasNext()) {
-			Sentence sen = (Sentence) senItr.next();
-			senSets.add(sen);
-		}
+		// start the assignment of new segment; sentences and segments are
+		// laid out in memory and each written to the index once
+		String docText=jCas.getDocumentText();
+		SentenceLayout layout=SentenceLayout.read(jCas);
+		List<SentenceLayout.Span> senSets=layout.getSpans();
+		List<SentenceLayout.Span> newSets=new ArrayList<SentenceLayout.Span>(senSets.size());
 		String cSegment="DocBegin\tDocBegin";
 		Segment cSeg=new Segment(jCas);
 		cSeg.setBegin(0);
@@ -94,64 +108,150 @@ public class RulebasedSectionAnnotator extends JCasAnnotator_ImplBase {
 		int segEnd=0;
 		sentCounter=0;
 		for (int i=0; i< senSets.size(); i++) {
-			Sentence sen = (Sentence) senSets.get(i);
-			Segment sec=SecIndicator(sen, jCas);
-			if(sec!=null) { 
-				if(segEnd > 0) {
-					cSeg.removeFromIndexes();
-					cSeg.setEnd(segEnd); 
-				    cSeg.addToIndexes();
-				}
+			SentenceLayout.Span sen = senSets.get(i);
+			String str=docText.substring(sen.begin, sen.end);
+			List<Header> found=findHeaders(str);
+			if(found.isEmpty()) {
+				sen.id=cSeg.getId()+":"+sentCounter;
+				sentCounter++;
+				sen.segment=cSeg;
+				newSets.add(sen);
+				segEnd=sen.end;
+				continue;
+			}
+			if(found.get(0).start > 0) {
+				// the lines before the header stay in the current section
+				SentenceLayout.Span before=layout.span(sen.begin,sen.begin+trim(str, found.get(0).start),sen);
+				before.id=cSeg.getId()+":"+sentCounter;
+				sentCounter++;
+				before.segment=cSeg;
+				newSets.add(before);
+				segEnd=before.end;
+			}
+			for (int h=0; h < found.size(); h++) {
+				// each header runs up to the next one
+				int end=h+1 < found.size() ? trim(str, found.get(h+1).start) : str.length();
+				Segment sec=SecIndicator(layout, sen, end, found.get(h), newSets, jCas);
+				closeSegment(cSeg, segEnd);
 				cSeg=sec;
 				segEnd=cSeg.getEnd();
-				}
-			else{
-			sen.removeFromIndexes(jCas);
-			sen.setId(cSeg.getId()+":"+sentCounter);
-			sentCounter++;
-			sen.setSegment(cSeg);
-			sen.addToIndexes();
-			segEnd=sen.getEnd();
 			}
 		}
+		closeSegment(cSeg, segEnd);
+		layout.setSpans(newSets);
+		layout.write(jCas);
+	}
+
+	// indexes a segment once its end is known
+	private void closeSegment(Segment seg, int segEnd) {
 		if(segEnd > 0) {
-			cSeg.removeFromIndexes();
-			cSeg.setEnd(segEnd);
-			cSeg.addToIndexes();
+			seg.setEnd(segEnd);
+			seg.addToIndexes();
 		}
 	}
 
+	/**
+	 * A header found in a sentence: it starts at offset start, and the
+	 * header sentence of the new segment ends after offset start+pos.
+	 */
+	static class Header {
+		final int start;
+		final int pos;
+		final String section;
+
+		Header(int start, int pos, String section) {
+			this.start = start;
+			this.pos = pos;
+			this.section = section;
+		}
+	}
 
-	private Segment SecIndicator(Sentence sen, JCas jcas) {
-		String str=sen.getCoveredText();
+	/**
+	 * @return the headers of the sentence text in text order: the whole
+	 *         sentence or its prefix, then with headerAtLineStart those at
+	 *         the start of its later lines
+	 */
+	List<Header> findHeaders(String str) {
+		List<Header> found=new ArrayList<Header>();
+		Header header=findHeader(str, 0, str.length());
+		if(header!=null) found.add(header);
+		if(!lineStart) return found;
+		int start=0;
+		if(header!=null) {
+			// a whole sentence header leaves no lines to look at
+			if(header.pos==0) return found;
+			start=str.indexOf('\n', header.pos);
+			if(start < 0) return found;
+			start++;
+		}
+		while(start < str.length()) {
+			int end=str.indexOf('\n', start);
+			if(end < 0) end=str.length();
+			if(start > 0 || end < str.length()) {
+				header=findHeader(str, start, end);
+				if(header!=null) {
+					// a header line is a sentence of its own
+					if(header.pos==0) header=new Header(start, Math.max(end-start-1, 0), header.section);
+					found.add(header);
+				}
+			}
+			start=end+1;
+		}
+		return found;
+	}
+
+	/**
+	 * @return the header of the sentence text from start on, whose
+	 *         candidate header ends at end at most: all of it, or with
+	 *         headerPrefix the text before its first colon
+	 */
+	private Header findHeader(String str, int start, int end) {
+		if(maxLength > 0 && str.length()-start > maxLength) return null;
+		String section=headers.find(str, start, end);
+		if(section!=null) return new Header(start, 0, section);
+		if(headerPrefix) {
+			int pos=str.indexOf(':', start);
+			if(pos >= 0 && pos < end && (section=headers.find(str, start, pos))!=null)
+				return new Header(start, pos-start, section);
+		}
+		return null;
+	}
+
+	// end without the whitespace before it
+	private static int trim(String str, int end) {
+		while(end > 0 && LvgLookup.isSpace(str.charAt(end-1))) end--;
+		return end;
+	}
+
+	/**
+	 * @return the segment of the header, ending at offset end of the
+	 *         sentence sen, whose sentences are added to sentences
+	 */
+	private Segment SecIndicator(SentenceLayout layout, SentenceLayout.Span sen, int end,
+			Header header, List<SentenceLayout.Span> sentences, JCas jcas) {
+		int begin=sen.begin+header.start;
+		end+=sen.begin;
+		int pos=header.pos;
 		Segment cSeg=null;
-//		int pos=str.indexOf(":");
-		int pos=0;
-//		if(pos < 0 || pos >=100) return null;
-//		String secStr=str.substring(0,pos);
-		if(sectionMap.containsKey(lvg.getNorm(str))){
-			sen.removeFromIndexes(jcas);
-		    String cSegment=sectionMap.get(lvg.getNorm(str));
+		String cSegment=header.section;
 		    cSeg=new Segment(jcas);
-			cSeg.setBegin(sen.getBegin());
-			cSeg.setEnd(sen.getEnd());
-			cSeg.addToIndexes();
+			cSeg.setBegin(begin);
+			cSeg.setEnd(end);
 			String[] splits = cSegment.split("\t");		
 			if(splits.length >=0) cSeg.setId(splits[0]);
 			if(splits.length >=1) cSeg.setValue(splits[1]);
-			Sentence segsent=new Sentence(jcas,sen.getBegin(),sen.getBegin()+pos+1);
+			SentenceLayout.Span segsent=layout.span(begin,begin+pos+1,sen);
 		    sentCounter=0;
-		    segsent.setId(cSeg.getId()+":"+sentCounter);
-		    segsent.setSegment(cSeg);
-		    segsent.addToIndexes(jcas);
+		    segsent.id=cSeg.getId()+":"+sentCounter;
+		    segsent.segment=cSeg;
+		    sentences.add(segsent);
 		    sentCounter++;
-		    if(sen.getEnd() > sen.getBegin()+pos+1){
-		    Sentence sent=new Sentence(jcas,sen.getBegin()+pos+1,sen.getEnd());
-		    sent.setId(cSeg.getId()+":"+sentCounter);
+		    if(end > begin+pos+1){
+		    SentenceLayout.Span sent=layout.span(begin+pos+1,end,sen);
+		    sent.id=cSeg.getId()+":"+sentCounter;
 		    sentCounter++;
-		    sent.setSegment(cSeg);
-		    sent.addToIndexes(jcas);
-		}
+		    sent.segment=cSeg;
+		    sentences.add(sent);
 		}
 		return cSeg;
 	}
@@ -163,26 +263,31 @@ public class RulebasedSectionAnnotator extends JCasAnnotator_ImplBase {
 		
 	}
 
-	HashMap<String, String> sectionMap;
-	LvgLookup lvg;
+	SectionHeaders headers;
+	// defaults of the subclasses, overridden by the parameters
+	boolean headerPrefix=false;
+	boolean lineStart=false;
+	int maxLength=0;
 	@Override
 	public void initialize(UimaContext aContext)
 			throws ResourceInitializationException {
-		sectionMap = new HashMap<String, String>();
+		super.initialize(aContext);
 		try {
-			lvg  = new LvgLookup(aContext.getResourceFilePath("lvg_dict"),aContext.getResourceFilePath("openclass"));
-			
-			BufferedReader br = new BufferedReader(new FileReader(aContext.getResourceFilePath("section_map")));
-			while(br.ready()){
-				String str=br.readLine();
-				if(str.startsWith("#")) continue;
-				String[] splits = str.split("\t");
-				//in case of ambiguity, use the first one
-				if(!sectionMap.containsKey(lvg.getNorm(splits[0]))){
-				sectionMap.put(lvg.getNorm(splits[0]), splits[1]+"\t"+splits[2]);
-				}
-			}
-			br.close();						
+			String[] extra = (String[]) aContext.getConfigParameterValue(PARAM_SECTION_MAPS);
+			if (extra == null) extra = new String[0];
+			String[] maps = new String[extra.length + 1];
+			maps[0] = aContext.getResourceFilePath("section_map");
+			for (int i = 0; i < extra.length; i++)
+				maps[i + 1] = resolve(aContext, extra[i].trim());
+			headers = SectionHeaders.get(aContext.getResourceFilePath("lvg_dict"),
+					aContext.getResourceFilePath("openclass"), maps);
+
+			Boolean prefix = (Boolean) aContext.getConfigParameterValue(PARAM_HEADER_PREFIX);
+			if (prefix != null) headerPrefix = prefix;
+			Boolean lines = (Boolean) aContext.getConfigParameterValue(PARAM_LINE_START);
+			if (lines != null) lineStart = lines;
+			Integer length = (Integer) aContext.getConfigParameterValue(PARAM_MAX_LENGTH);
+			if (length != null) maxLength = length;
 		} catch (ResourceAccessException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -190,4 +295,16 @@ public class RulebasedSectionAnnotator extends JCasAnnotator_ImplBase {
 		}
 	}
 
+	/**
+	 * @return path, if relative, found in the data path
+	 */
+	private static String resolve(UimaContext aContext, String path) {
+		if (new File(path).isAbsolute()) return path;
+		for (String dir : aContext.getDataPath().split(File.pathSeparator)) {
+			File file = new File(dir, path);
+			if (file.exists()) return file.getPath();
+		}
+		return path;
+	}
+
 }
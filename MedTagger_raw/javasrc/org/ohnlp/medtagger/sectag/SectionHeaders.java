@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.sectag;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.apache.log4j.Logger;
+
+import org.ohnlp.medtagger.dict.StringPool;
+import org.ohnlp.medtagger.lvg.LvgLexicon;
+import org.ohnlp.medtagger.lvg.LvgLookup;
+import org.ohnlp.medtagger.util.ResourceRegistry;
+
+/**
+ * The section headers of one or more section maps, compiled into a trie
+ * over the normalized tokens of the headers.
+ *
+ * Section map lines are header, section id and section value separated by
+ * tabs. Headers are normalized with LvgLookup.getNorm(); the first line of
+ * a header wins, also across maps.
+ *
+ * find() normalizes the candidate one word at a time while it walks the
+ * trie, so it stops at the first word no header continues with. Text whose
+ * first word, after open class words, cannot start any header is rejected
+ * before anything is normalized. A header found is checked against
+ * getNorm() of the whole candidate, so find() gives exactly what looking
+ * getNorm() up in the section map gave.
+ */
+public class SectionHeaders {
+
+	private static Logger iv_logger = Logger.getLogger(SectionHeaders.class.getName());
+
+	static class Node {
+		// null until the node has children
+		HashMap<String, Node> children;
+		// the normalized header and its "id\tvalue", null for inner nodes
+		String header;
+		String section;
+
+		Node child(String token) {
+			return children == null ? null : children.get(token);
+		}
+	}
+
+	final LvgLookup lvg;
+	final Node root = new Node();
+	int size;
+	// lower case words whose normalized form can start a header
+	final StringPool firstWords;
+
+	/**
+	 * @return the headers of the section maps, shared by the whole JVM, see
+	 *         ResourceRegistry
+	 */
+	public static SectionHeaders get(final String lvgDict, final String openclass,
+			final String... maps) throws IOException {
+		String[] files = new String[maps.length + 2];
+		files[0] = lvgDict;
+		files[1] = openclass;
+		System.arraycopy(maps, 0, files, 2, maps.length);
+		return ResourceRegistry.get("section headers", new ResourceRegistry.Loader<SectionHeaders>() {
+			public SectionHeaders load() throws IOException {
+				return new SectionHeaders(LvgLookup.get(lvgDict, openclass), maps);
+			}
+		}, files);
+	}
+
+	public SectionHeaders(LvgLookup lvg, String... maps) throws IOException {
+		this.lvg = lvg;
+		for (String map : maps) {
+			BufferedReader br = new BufferedReader(new FileReader(map));
+			try {
+				String line;
+				while ((line = br.readLine()) != null) {
+					if (line.startsWith("#")) continue;
+					String[] splits = line.split("\t");
+					if (splits.length < 3) continue;
+					add(lvg.getNorm(splits[0]), splits[1] + "\t" + splits[2]);
+				}
+			} finally {
+				br.close();
+			}
+		}
+		firstWords = firstWords();
+		iv_logger.info(size + " section headers from " + maps.length + " maps, "
+				+ firstWords.size() + " words can start one");
+	}
+
+	private void add(String header, String section) {
+		Node node = root;
+		if (header.length() > 0) {
+			for (String token : header.split(" ", -1)) {
+				if (node.children == null) node.children = new HashMap<String, Node>();
+				Node child = node.children.get(token);
+				if (child == null) node.children.put(token, child = new Node());
+				node = child;
+			}
+		}
+		//in case of ambiguity, use the first one
+		if (node.header != null) return;
+		node.header = header;
+		node.section = section;
+		size++;
+	}
+
+	/**
+	 * The first tokens of the headers, and the words of the LVG lexicon
+	 * whose canonical forms start with one of them. A canonical form that
+	 * is blank could come before any header, so its words are kept too.
+	 */
+	private StringPool firstWords() {
+		HashSet<String> first = new HashSet<String>();
+		if (root.children != null) first.addAll(root.children.keySet());
+		LvgLexicon lexicon = lvg.getLexicon();
+		boolean[] starts = new boolean[lexicon.canonicalCount()];
+		for (int i = 0; i < starts.length; i++) {
+			String form = lexicon.getCanonicalForm(i).trim();
+			int space = form.indexOf(' ');
+			starts[i] = form.length() == 0
+					|| first.contains(space < 0 ? form : form.substring(0, space));
+		}
+		ArrayList<String> words = new ArrayList<String>(first);
+		for (int i = 0; i < lexicon.size(); i++)
+			if (starts[lexicon.getCanonicalIndex(i)]) words.add(lexicon.getWord(i));
+		return StringPool.of(words.toArray(new String[words.size()]), true);
+	}
+
+	/**
+	 * @return the number of headers
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the "id\tvalue" of the section whose header is text[start,end),
+	 *         or null if it is not a header
+	 */
+	public String find(CharSequence text, int start, int end) {
+		// getNorm() trims leading whitespace and open class words
+		int i = start;
+		while (true) {
+			while (i < end && LvgLookup.isSpace(text.charAt(i))) i++;
+			if (i == end) return check(root, text, start, end);
+			int e = wordEnd(text, i, end);
+			CharSequence word = lvg.getLowerWord(text, i, e);
+			if (!lvg.isOpenClass(word)) {
+				if (firstWords.indexOf(word) < 0) return null;
+				break;
+			}
+			i = e;
+		}
+
+		Node node = root;
+		// empty tokens passed, dropped at the end as trim() does
+		int empty = 0;
+		while (true) {
+			int e = wordEnd(text, i, end);
+			String norm = lvg.getNormWord(text, i, e);
+			int from = 0;
+			while (true) {
+				int space = norm.indexOf(' ', from);
+				String token = space < 0 ? (from == 0 ? norm : norm.substring(from))
+						: norm.substring(from, space);
+				if (token.length() == 0) {
+					if (node != root) empty++;
+				}
+				else {
+					for (; empty > 0 && node != null; empty--) node = node.child("");
+					if (node == null || (node = node.child(token)) == null) return null;
+				}
+				if (space < 0) break;
+				from = space + 1;
+			}
+			// every whitespace character ends a word, as in getNorm()
+			if (e >= end) break;
+			i = e + 1;
+		}
+		return check(node, text, start, end);
+	}
+
+	private static int wordEnd(CharSequence text, int i, int end) {
+		while (i < end && !LvgLookup.isSpace(text.charAt(i))) i++;
+		return i;
+	}
+
+	private String check(Node node, CharSequence text, int start, int end) {
+		if (node.section == null) return null;
+		String norm = lvg.getNorm(text.subSequence(start, end).toString());
+		return norm.equals(node.header) ? node.section : null;
+	}
+}
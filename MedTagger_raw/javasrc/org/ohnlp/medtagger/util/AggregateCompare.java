@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.apache.uima.resource.ResourceManager;
+import org.apache.uima.util.XMLInputSource;
+import org.ohnlp.medtagger.ae.TokenizerBenchmark;
+
+/**
+ * Runs two aggregates over the same notes and tells whether they produce
+ * the same concept mentions, IE matches, sentences and segments, e.g. an
+ * aggregate and the copy PipelinePruner wrote of it.
+ *
+ * Each annotation is compared by its type, span and primitive features; a
+ * feature holding an annotation is compared by that annotation's span and
+ * id. Startup and processing times of both are reported alongside.
+ *
+ * usage: AggregateCompare aggregate other_aggregate data_path notes
+ *
+ * notes is a text file or a directory of them.
+ */
+public class AggregateCompare {
+
+	static final String[] TYPES = { "org.ohnlp.medtagger.type.ConceptMention",
+			"org.ohnlp.medtagger.ie.type.Match",
+			"org.ohnlp.typesystem.type.textspan.Sentence",
+			"org.ohnlp.typesystem.type.textspan.Segment" };
+	// differing annotations listed at most
+	static final int SHOWN = 10;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("usage: AggregateCompare aggregate other_aggregate data_path notes");
+			System.exit(1);
+		}
+		List<String> notes = TokenizerBenchmark.readNotes(new File(args[3]));
+		List<List<String>> outputs = new ArrayList<List<String>>();
+		for (int k = 0; k < 2; k++) {
+			long start = System.nanoTime();
+			ResourceManager rm = UIMAFramework.newDefaultResourceManager();
+			rm.setDataPath(args[2]);
+			AnalysisEngine ae = UIMAFramework.produceAnalysisEngine(UIMAFramework
+					.getXMLParser().parseResourceSpecifier(new XMLInputSource(args[k])), rm, null);
+			long started = System.nanoTime();
+			JCas jCas = ae.newJCas();
+			List<String> output = new ArrayList<String>();
+			for (String note : notes) {
+				jCas.reset();
+				jCas.setDocumentText(note);
+				ae.process(jCas);
+				output.addAll(annotations(jCas));
+			}
+			long end = System.nanoTime();
+			System.out.println(String.format("%s: startup %.0f ms, %.1f ms/note, %d annotations",
+					args[k], (started - start) / 1e6, (end - started) / 1e6 / Math.max(1, notes.size()),
+					output.size()));
+			outputs.add(output);
+			ae.destroy();
+		}
+
+		if (outputs.get(0).equals(outputs.get(1))) {
+			System.out.println("SAME");
+			return;
+		}
+		System.out.println("DIFFERENT");
+		for (int k = 0; k < 2; k++) {
+			HashSet<String> only = new HashSet<String>(outputs.get(k));
+			only.removeAll(outputs.get(1 - k));
+			int shown = 0;
+			for (String annotation : only) {
+				if (shown++ == SHOWN) break;
+				System.out.println((k == 0 ? "- " : "+ ") + annotation);
+			}
+		}
+	}
+
+	// the annotations of TYPES in index order, one line each
+	static List<String> annotations(JCas jCas) {
+		List<String> lines = new ArrayList<String>();
+		for (String name : TYPES) {
+			Type type = jCas.getTypeSystem().getType(name);
+			if (type == null) continue;
+			FSIterator<Annotation> it = jCas.getAnnotationIndex(type).iterator();
+			while (it.hasNext()) {
+				Annotation a = it.next();
+				StringBuilder sb = new StringBuilder(type.getShortName());
+				sb.append(' ').append(a.getBegin()).append('-').append(a.getEnd());
+				for (Feature f : type.getFeatures()) {
+					if (f.getRange().isPrimitive()) {
+						sb.append(' ').append(f.getShortName()).append('=')
+								.append(a.getFeatureValueAsString(f));
+						continue;
+					}
+					FeatureStructure value = a.getFeatureValue(f);
+					if (!(value instanceof Annotation)) continue;
+					Annotation v = (Annotation) value;
+					sb.append(' ').append(f.getShortName()).append('=')
+							.append(v.getBegin()).append('-').append(v.getEnd());
+					Feature id = v.getType().getFeatureByBaseName("id");
+					if (id != null) sb.append('/').append(v.getFeatureValueAsString(id));
+				}
+				lines.add(sb.toString());
+			}
+		}
+		return lines;
+	}
+}
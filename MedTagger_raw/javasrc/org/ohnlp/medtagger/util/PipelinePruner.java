@@ -0,0 +1,466 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.analysis_engine.TypeOrFeature;
+import org.apache.uima.analysis_engine.metadata.AnalysisEngineMetaData;
+import org.apache.uima.analysis_engine.metadata.FixedFlow;
+import org.apache.uima.analysis_engine.metadata.FlowConstraints;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.collection.metadata.CpeCasProcessor;
+import org.apache.uima.collection.metadata.CpeDescription;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ExternalResourceDescription;
+import org.apache.uima.resource.ResourceCreationSpecifier;
+import org.apache.uima.resource.ResourceManager;
+import org.apache.uima.resource.ResourceSpecifier;
+import org.apache.uima.resource.metadata.Capability;
+import org.apache.uima.resource.metadata.ConfigurationParameter;
+import org.apache.uima.resource.metadata.ConfigurationParameterDeclarations;
+import org.apache.uima.resource.metadata.ConfigurationParameterSettings;
+import org.apache.uima.resource.metadata.ExternalResourceBinding;
+import org.apache.uima.resource.metadata.MetaDataObject;
+import org.apache.uima.resource.metadata.NameValuePair;
+import org.apache.uima.resource.metadata.ProcessingResourceMetaData;
+import org.apache.uima.resource.metadata.ResourceManagerConfiguration;
+import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.util.ProcessTrace;
+import org.apache.uima.util.ProcessTraceEvent;
+import org.apache.uima.util.XMLInputSource;
+
+import org.ohnlp.medtagger.ae.TokenizerBenchmark;
+
+/**
+ * Drops the stages of an aggregate with a fixed flow whose outputs nothing
+ * downstream reads.
+ *
+ * Each annotator declares in the capabilities of its descriptor the types
+ * and features it reads (inputs) and writes (outputs). Going back from the
+ * end of the flow, a stage is needed if one of its outputs is read by a
+ * needed later stage, by a CAS consumer, or is an output of the aggregate;
+ * then its inputs are read in turn. A type is read by the stages reading
+ * the type, a super- or a subtype of it; a feature only by those reading
+ * that feature or all features of the type. A stage or consumer declaring
+ * nothing may read anything, so no stage before it is dropped. Delegates
+ * that are not in the flow are dropped too, they were initialized for
+ * nothing.
+ *
+ * usage: PipelinePruner [--explain] [--notes notes] [-o pruned.xml]
+ *            aggregate data_path [cpe_or_consumer...]
+ *
+ * The consumers are the given CAS consumer descriptors and the CAS
+ * processors after the aggregate in the given CPE descriptors. With
+ * --explain the removed stages are listed, with --notes their time on the
+ * notes with the full aggregate as the estimated time saved. With -o the
+ * pruned aggregate is written; imports by location are relative to it.
+ *
+ * The aggregates under desc are kept pruned for their CPEs; run --explain
+ * on them after changing a flow, a capability or a consumer, and
+ * AggregateCompare to check a pruned copy against the original.
+ */
+public class PipelinePruner {
+
+	private static Logger iv_logger = Logger.getLogger(PipelinePruner.class.getName());
+
+	private final AnalysisEngineDescription aggregate;
+	private final ResourceManager rm;
+	private final List<String> consumerNames = new ArrayList<String>();
+	private final List<ResourceSpecifier> consumers = new ArrayList<ResourceSpecifier>();
+	// the removed delegate keys in flow order and why, set by prune()
+	private final Map<String, String> removed = new LinkedHashMap<String, String>();
+	private String keptAll;
+	private TypeSystem ts;
+
+	public PipelinePruner(AnalysisEngineDescription aggregate, ResourceManager rm) {
+		this.aggregate = aggregate;
+		this.rm = rm;
+	}
+
+	public void addConsumer(String name, ResourceSpecifier consumer) {
+		consumerNames.add(name);
+		consumers.add(consumer);
+	}
+
+	/**
+	 * Adds the CAS processors of the CPE after the one whose descriptor is
+	 * aggregate.
+	 */
+	public void addConsumers(CpeDescription cpe, File aggregate) throws Exception {
+		boolean after = false;
+		for (CpeCasProcessor processor : cpe.getCpeCasProcessors().getAllCpeCasProcessors()) {
+			URL url = processor.getCpeComponentDescriptor().findAbsoluteUrl(rm);
+			if (!after) {
+				after = "file".equals(url.getProtocol())
+						&& new File(url.toURI()).getCanonicalFile().equals(aggregate.getCanonicalFile());
+				continue;
+			}
+			addConsumer(processor.getName(), UIMAFramework.getXMLParser().parseResourceSpecifier(
+					new XMLInputSource(url)));
+		}
+		if (!after) throw new IllegalArgumentException(aggregate + " is no CAS processor of the CPE");
+	}
+
+	/**
+	 * Removes the stages nothing downstream reads from the flow, the
+	 * delegates, the parameter overrides and the resource bindings of the
+	 * aggregate.
+	 *
+	 * @return the removed delegate keys in flow order and why
+	 */
+	public Map<String, String> prune() throws Exception {
+		AnalysisEngineMetaData meta = aggregate.getAnalysisEngineMetaData();
+		FlowConstraints constraints = meta.getFlowConstraints();
+		if (!(constraints instanceof FixedFlow))
+			throw new IllegalArgumentException(meta.getName() + " has no fixed flow");
+		FixedFlow flow = (FixedFlow) constraints;
+		Map<String, ResourceSpecifier> delegates = aggregate.getDelegateAnalysisEngineSpecifiers(rm);
+		List<MetaDataObject> all = new ArrayList<MetaDataObject>();
+		all.add(aggregate);
+		all.addAll(consumers);
+		ts = CasCreationUtils.createCas(all, null, rm).getTypeSystem();
+
+		List<TypeOrFeature> needed = new ArrayList<TypeOrFeature>();
+		addAll(needed, meta, false);
+		for (int i = 0; i < consumers.size(); i++) {
+			ProcessingResourceMetaData md = metaData(consumers.get(i));
+			if (inputs(md).isEmpty()) keptAll = consumerNames.get(i) + " declares no inputs, no stage is removed";
+			addAll(needed, md, true);
+		}
+		if (needed.isEmpty() && keptAll == null)
+			keptAll = "neither the aggregate nor a consumer declares what is read, no stage is removed";
+
+		removed.clear();
+		LinkedList<String> kept = new LinkedList<String>();
+		LinkedList<String> dropped = new LinkedList<String>();
+		Map<String, String> reasons = new HashMap<String, String>();
+		String[] stages = flow.getFixedFlow();
+		for (int i = stages.length - 1; i >= 0; i--) {
+			String key = stages[i];
+			ProcessingResourceMetaData md = metaData(delegates.get(key));
+			if (keptAll == null && !declares(md)) keptAll = key + " declares no capabilities, no stage before it is removed";
+			if (keptAll != null || read(md, needed)) {
+				kept.addFirst(key);
+				addAll(needed, md, true);
+			} else {
+				dropped.addFirst(key);
+				reasons.put(key, "writes " + names(outputs(md)) + ", read by no later stage or consumer");
+			}
+		}
+		for (String key : dropped) removed.put(key, reasons.get(key));
+		for (String key : delegates.keySet())
+			if (!kept.contains(key) && !removed.containsKey(key)) removed.put(key, "not in the flow");
+		if (keptAll != null) iv_logger.info(meta.getName() + ": " + keptAll);
+
+		flow.setFixedFlow(kept.toArray(new String[kept.size()]));
+		for (String key : removed.keySet()) {
+			aggregate.getDelegateAnalysisEngineSpecifiersWithImports().remove(key);
+			iv_logger.info(meta.getName() + ": removed " + key + ", " + removed.get(key));
+		}
+		removeOverrides(meta);
+		removeBindings();
+		return removed;
+	}
+
+	/**
+	 * @return why some or all stages were kept without looking at their
+	 *         outputs, null if none was
+	 */
+	public String getKeptAll() {
+		return keptAll;
+	}
+
+	// the parameters left without overrides are removed with their settings
+	private void removeOverrides(AnalysisEngineMetaData meta) {
+		ConfigurationParameterDeclarations decls = meta.getConfigurationParameterDeclarations();
+		ConfigurationParameterSettings settings = meta.getConfigurationParameterSettings();
+		List<ConfigurationParameter> params = new ArrayList<ConfigurationParameter>();
+		HashSet<String> dropped = new HashSet<String>();
+		for (ConfigurationParameter param : decls.getConfigurationParameters()) {
+			String[] overrides = param.getOverrides();
+			List<String> left = new ArrayList<String>();
+			for (String override : overrides)
+				if (!removed.containsKey(delegate(override))) left.add(override);
+			if (overrides.length > 0 && left.isEmpty()) {
+				dropped.add(param.getName());
+				continue;
+			}
+			param.setOverrides(left.toArray(new String[left.size()]));
+			params.add(param);
+		}
+		decls.setConfigurationParameters(params.toArray(new ConfigurationParameter[params.size()]));
+		List<NameValuePair> values = new ArrayList<NameValuePair>();
+		for (NameValuePair value : settings.getParameterSettings())
+			if (!dropped.contains(value.getName())) values.add(value);
+		settings.setParameterSettings(values.toArray(new NameValuePair[values.size()]));
+	}
+
+	// the resources only bound to removed delegates are removed with the bindings
+	private void removeBindings() {
+		ResourceManagerConfiguration config = aggregate.getResourceManagerConfiguration();
+		if (config == null) return;
+		HashSet<String> unbound = new HashSet<String>();
+		HashSet<String> bound = new HashSet<String>();
+		List<ExternalResourceBinding> bindings = new ArrayList<ExternalResourceBinding>();
+		for (ExternalResourceBinding binding : config.getExternalResourceBindings()) {
+			if (removed.containsKey(delegate(binding.getKey()))) {
+				unbound.add(binding.getResourceName());
+			} else {
+				bound.add(binding.getResourceName());
+				bindings.add(binding);
+			}
+		}
+		unbound.removeAll(bound);
+		config.setExternalResourceBindings(bindings.toArray(new ExternalResourceBinding[bindings.size()]));
+		List<ExternalResourceDescription> resources = new ArrayList<ExternalResourceDescription>();
+		for (ExternalResourceDescription resource : config.getExternalResources())
+			if (!unbound.contains(resource.getName())) resources.add(resource);
+		config.setExternalResources(resources.toArray(new ExternalResourceDescription[resources.size()]));
+	}
+
+	private static String delegate(String key) {
+		int slash = key.indexOf('/');
+		return slash < 0 ? key : key.substring(0, slash);
+	}
+
+	private static ProcessingResourceMetaData metaData(ResourceSpecifier spec) {
+		if (spec instanceof ResourceCreationSpecifier) {
+			Object md = ((ResourceCreationSpecifier) spec).getMetaData();
+			if (md instanceof ProcessingResourceMetaData) return (ProcessingResourceMetaData) md;
+		}
+		return null;
+	}
+
+	private static boolean declares(ProcessingResourceMetaData md) {
+		return md != null && (!inputs(md).isEmpty() || !outputs(md).isEmpty());
+	}
+
+	private static List<TypeOrFeature> inputs(ProcessingResourceMetaData md) {
+		List<TypeOrFeature> list = new ArrayList<TypeOrFeature>();
+		if (md != null && md.getCapabilities() != null)
+			for (Capability capability : md.getCapabilities()) list.addAll(Arrays.asList(capability.getInputs()));
+		return list;
+	}
+
+	private static List<TypeOrFeature> outputs(ProcessingResourceMetaData md) {
+		List<TypeOrFeature> list = new ArrayList<TypeOrFeature>();
+		if (md != null && md.getCapabilities() != null)
+			for (Capability capability : md.getCapabilities()) list.addAll(Arrays.asList(capability.getOutputs()));
+		return list;
+	}
+
+	private static void addAll(List<TypeOrFeature> needed, ProcessingResourceMetaData md, boolean inputs) {
+		needed.addAll(inputs ? inputs(md) : outputs(md));
+	}
+
+	// whether an output of the stage is read by needed
+	private boolean read(ProcessingResourceMetaData md, List<TypeOrFeature> needed) {
+		for (TypeOrFeature output : outputs(md))
+			for (TypeOrFeature input : needed)
+				if (reads(input, output)) return true;
+		return false;
+	}
+
+	/**
+	 * @return whether input reads what output writes: new annotations of a
+	 *         type are read by all inputs of related types, a feature by
+	 *         the inputs of the feature or of all features of the type
+	 */
+	boolean reads(TypeOrFeature input, TypeOrFeature output) {
+		if (!related(typeName(input), typeName(output))) return false;
+		if (output.isType()) return true;
+		if (input.isType()) return input.isAllAnnotatorFeatures();
+		return featureName(input).equals(featureName(output));
+	}
+
+	private boolean related(String a, String b) {
+		Type ta = ts.getType(a), tb = ts.getType(b);
+		if (ta == null || tb == null) return a.equals(b);
+		return ts.subsumes(ta, tb) || ts.subsumes(tb, ta);
+	}
+
+	private static String typeName(TypeOrFeature tf) {
+		int colon = tf.getName().indexOf(':');
+		return tf.isType() || colon < 0 ? tf.getName() : tf.getName().substring(0, colon);
+	}
+
+	private static String featureName(TypeOrFeature tf) {
+		return tf.getName().substring(tf.getName().indexOf(':') + 1);
+	}
+
+	// short names, e.g. Chunk, WordToken:canonicalForm
+	private static String names(List<TypeOrFeature> list) {
+		StringBuilder sb = new StringBuilder();
+		for (TypeOrFeature tf : list) {
+			if (sb.length() > 0) sb.append(", ");
+			sb.append(tf.getName().substring(tf.getName().lastIndexOf('.') + 1));
+		}
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean explain = false;
+		String notesPath = null, outPath = null;
+		List<String> rest = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--explain")) explain = true;
+			else if (args[i].equals("--notes") && i + 1 < args.length) notesPath = args[++i];
+			else if (args[i].equals("-o") && i + 1 < args.length) outPath = args[++i];
+			else rest.add(args[i]);
+		}
+		if (rest.size() < 2) {
+			System.err.println("usage: PipelinePruner [--explain] [--notes notes] [-o pruned.xml] aggregate data_path [cpe_or_consumer...]");
+			System.exit(1);
+		}
+		File file = new File(rest.get(0));
+		ResourceManager rm = UIMAFramework.newDefaultResourceManager();
+		rm.setDataPath(rest.get(1));
+		AnalysisEngineDescription aggregate = UIMAFramework.getXMLParser()
+				.parseAnalysisEngineDescription(new XMLInputSource(file));
+		PipelinePruner pruner = new PipelinePruner(aggregate, rm);
+		for (String path : rest.subList(2, rest.size())) {
+			XMLInputSource in = new XMLInputSource(path);
+			ResourceSpecifier spec;
+			try {
+				spec = UIMAFramework.getXMLParser().parseResourceSpecifier(in);
+			} catch (Exception e) {
+				// not a component, so a CPE
+				pruner.addConsumers(UIMAFramework.getXMLParser().parseCpeDescription(new XMLInputSource(path)), file);
+				continue;
+			}
+			pruner.addConsumer(metaData(spec) == null ? path : metaData(spec).getName(), spec);
+		}
+
+		// the time of each stage of the full aggregate
+		Map<String, Double> times = null;
+		int notes = 0;
+		if (explain && notesPath != null) {
+			List<String> texts = TokenizerBenchmark.readNotes(new File(notesPath));
+			notes = texts.size();
+			times = stageTimes(rest.get(0), rest.get(1), texts);
+		}
+		String[] stages = ((FixedFlow) aggregate.getAnalysisEngineMetaData().getFlowConstraints()).getFixedFlow();
+		Map<String, String> removed = pruner.prune();
+
+		if (explain) {
+			System.out.println(aggregate.getAnalysisEngineMetaData().getName() + ", read downstream by: aggregate outputs"
+					+ (pruner.consumerNames.isEmpty() ? "" : ", " + join(pruner.consumerNames)));
+			double total = 0, saved = 0;
+			for (String key : stages) {
+				Double time = times == null ? null : times.get(key);
+				if (time != null) total += time;
+				String reason = removed.get(key);
+				if (reason != null && time != null) saved += time;
+				System.out.println(String.format("  %-28s %-8s %s%s", key, reason == null ? "kept" : "removed",
+						time == null ? "" : String.format("%8.2f ms/note", time),
+						reason == null ? "" : "  " + reason));
+			}
+			for (Map.Entry<String, String> e : removed.entrySet())
+				if (!Arrays.asList(stages).contains(e.getKey()))
+					System.out.println(String.format("  %-28s %-8s %s", e.getKey(), "removed", e.getValue()));
+			if (pruner.getKeptAll() != null)
+				System.out.println("  " + pruner.getKeptAll());
+			if (times != null)
+				System.out.println(String.format("estimated time saved: %.2f of %.2f ms/note (%.1f%%) on %d notes",
+						saved, total, 100 * saved / Math.max(total, 1e-9), notes));
+			else
+				System.out.println("estimated time saved: not measured, see --notes");
+		}
+		if (outPath != null) {
+			OutputStream out = new FileOutputStream(outPath);
+			try {
+				// with the imports of the delegates, not their descriptors
+				aggregate.toXML(out, true);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	// ms per note of each delegate of the aggregate, without its sub events
+	private static Map<String, Double> stageTimes(String descriptor, String dataPath, List<String> notes) throws Exception {
+		ResourceManager rm = UIMAFramework.newDefaultResourceManager();
+		rm.setDataPath(dataPath);
+		AnalysisEngineDescription desc = UIMAFramework.getXMLParser()
+				.parseAnalysisEngineDescription(new XMLInputSource(descriptor));
+		AnalysisEngine ae = UIMAFramework.produceAnalysisEngine(desc, rm, null);
+		// the delegates are traced under the names of their metadata
+		Map<String, String> keys = new HashMap<String, String>();
+		for (Map.Entry<String, ResourceSpecifier> e : desc.getDelegateAnalysisEngineSpecifiers(rm).entrySet()) {
+			ProcessingResourceMetaData md = metaData(e.getValue());
+			if (md != null) keys.put(md.getName(), e.getKey());
+		}
+		Map<String, Double> times = new HashMap<String, Double>();
+		JCas jCas = ae.newJCas();
+		for (String note : notes) {
+			jCas.reset();
+			jCas.setDocumentText(note);
+			ProcessTrace trace = ae.process(jCas);
+			add(times, keys, trace.getEvents());
+		}
+		ae.destroy();
+		for (Map.Entry<String, Double> e : times.entrySet()) e.setValue(e.getValue() / Math.max(notes.size(), 1));
+		return times;
+	}
+
+	private static void add(Map<String, Double> times, Map<String, String> keys, List<ProcessTraceEvent> events) {
+		for (ProcessTraceEvent event : events) {
+			String key = keys.get(event.getComponentName());
+			if (key != null && "Analysis".equals(event.getType())) {
+				double time = event.getDuration();
+				for (ProcessTraceEvent sub : event.getSubEvents()) time -= sub.getDuration();
+				Double sum = times.get(key);
+				times.put(key, (sum == null ? 0 : sum) + time);
+			}
+			add(times, keys, event.getSubEvents());
+		}
+	}
+
+	private static String join(List<String> list) {
+		StringBuilder sb = new StringBuilder();
+		for (String s : list) {
+			if (sb.length() > 0) sb.append(", ");
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * JVM-wide registry of the read-only resources of the annotators.
+ *
+ * With processingUnitThreadCount above 1 every pipeline thread gets its own
+ * annotator instances, and each used to load its own copy of the LVG
+ * lexicon, the dictionary, the section map or the rules. Annotators ask the
+ * registry instead: a resource is loaded once per name and files and handed
+ * to every caller, until one of the files changes. Files are compared by
+ * length and modification time, as DictImage does, and directories by all
+ * the files below them.
+ *
+ * A resource must be immutable, or at least never modified after loading,
+ * since the threads use it without locking.
+ */
+public class ResourceRegistry {
+
+	public interface Loader<T> {
+		T load() throws IOException;
+	}
+
+	private static Logger iv_logger = Logger.getLogger(ResourceRegistry.class.getName());
+	private static final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+	static class Entry {
+		final long fingerprint;
+		// null until loaded
+		Object resource;
+
+		Entry(long fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	/**
+	 * @param name
+	 *            what is loaded and with which settings, e.g. "lookup
+	 *            dictionary image"; the same files can hold several
+	 *            resources under different names
+	 * @param files
+	 *            the files and directories the resource is loaded from
+	 * @return the resource, loaded by loader unless a current one is
+	 *         registered. Different resources load in parallel, callers of
+	 *         the same one wait for the first to load it; if loading fails,
+	 *         the next caller tries again.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T get(String name, Loader<T> loader, String... files)
+			throws IOException {
+		StringBuilder key = new StringBuilder(name);
+		long fingerprint = 17;
+		for (String file : files) {
+			File f = new File(file);
+			key.append('\n').append(f.getCanonicalPath());
+			fingerprint = fingerprint * 31 + fingerprint(f);
+		}
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key.toString());
+			if (entry == null || entry.fingerprint != fingerprint) {
+				if (entry != null)
+					iv_logger.info("reloading " + name + ", its files changed");
+				entry = new Entry(fingerprint);
+				entries.put(key.toString(), entry);
+			}
+		}
+		synchronized (entry) {
+			if (entry.resource == null) {
+				long start = System.currentTimeMillis();
+				entry.resource = loader.load();
+				iv_logger.info("loaded shared " + name + " in "
+						+ (System.currentTimeMillis() - start) + " ms");
+			}
+			return (T) entry.resource;
+		}
+	}
+
+	static long fingerprint(File file) {
+		if (file.isDirectory()) {
+			String[] names = file.list();
+			if (names == null) return 0;
+			Arrays.sort(names);
+			long fingerprint = names.length;
+			for (String name : names)
+				fingerprint = fingerprint * 31 + name.hashCode() * 7
+						+ fingerprint(new File(file, name));
+			return fingerprint;
+		}
+		return file.length() * 31 + file.lastModified();
+	}
+
+	/**
+	 * @return the number of registered resources
+	 */
+	public static int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Forgets all resources; instances already handed out stay usable.
+	 */
+	public static void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import opennlp.tools.chunker.ChunkerModel;
+import opennlp.uima.chunker.ChunkerModelResourceImpl;
+
+import org.apache.uima.resource.DataResource;
+import org.apache.uima.resource.ResourceInitializationException;
+
+/**
+ * A ChunkerModelResourceImpl whose model is loaded once for all pipeline
+ * replicas, see SharedModels.
+ */
+public class SharedChunkerModelResource extends ChunkerModelResourceImpl {
+
+	@Override
+	public void load(DataResource resource) throws ResourceInitializationException {
+		model = SharedModels.get("OpenNLP chunker model", resource, new SharedModels.Loader<ChunkerModel>() {
+			public ChunkerModel load(InputStream in) throws IOException {
+				return loadModel(in);
+			}
+		});
+	}
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright: (c)  2013  Mayo Foundation for Medical Education and
+ *  Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+ *  triple-shield Mayo logo are trademarks and service marks of MFMER.
+ *
+ *  Except as contained in the copyright notice above, or as used to identify
+ *  MFMER as the author of this software, the trade names, trademarks, service
+ *  marks, or product names of the copyright holder shall not be used in
+ *  advertising, promotion or otherwise in connection with this software without
+ *  prior written authorization of the copyright holder.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package org.ohnlp.medtagger.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+import org.apache.uima.resource.DataResource;
+import org.apache.uima.resource.ResourceInitializationException;
+
+/**
+ * Loads OpenNLP models through the ResourceRegistry, for the shared model
+ * resources such as SharedPOSModelResource.
+ *
+ * The opennlp.uima model resources load the model file for every resource
+ * manager, and so for every pipeline replica that has its own. The models
+ * are immutable and the annotators make their own SentenceDetectorME,
+ * TokenizerME, POSTaggerME or ChunkerME of them, so one model serves all
+ * threads. Models that are no plain file are loaded as before.
+ */
+public class SharedModels {
+
+	public interface Loader<T> {
+		T load(InputStream in) throws IOException;
+	}
+
+	/**
+	 * @param name
+	 *            the kind of model, e.g. "OpenNLP POS model"
+	 * @return the model of the resource, loaded by loader unless another
+	 *         resource of the same file did so already
+	 */
+	public static <T> T get(String name, final DataResource resource,
+			final Loader<T> loader) throws ResourceInitializationException {
+		ResourceRegistry.Loader<T> read = new ResourceRegistry.Loader<T>() {
+			public T load() throws IOException {
+				InputStream in = resource.getInputStream();
+				try {
+					return loader.load(in);
+				} finally {
+					in.close();
+				}
+			}
+		};
+		try {
+			URI uri = resource.getUri();
+			File file = uri != null && "file".equals(uri.getScheme()) ? new File(uri) : null;
+			if (file == null || !file.isFile())
+				return read.load();
+			return ResourceRegistry.get(name, read, file.getPath());
+		} catch (IOException e) {
+			throw new ResourceInitializationException(e);
+		} catch (IllegalArgumentException e) {
+			// a file URI with a query or fragment
+			throw new ResourceInitializationException(e);
+		}
+	}
+}